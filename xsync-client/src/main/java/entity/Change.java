@@ -0,0 +1,19 @@
+package entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class Change {
+  public static final String UPSERT = "UPSERT";
+  public static final String DELETE = "DELETE";
+
+  private Long seq;
+  private String filepath;
+  private String operation;
+  private Long lastModifiedTime;
+
+  /** Manifest version of the file after the change, null for deletes and older servers. */
+  private Long version;
+}
@@ -0,0 +1,13 @@
+package entity;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class ChangeFeed {
+  private Long cursor;
+  private List<Change> changes = new ArrayList<>();
+}
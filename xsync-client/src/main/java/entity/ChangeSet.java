@@ -0,0 +1,23 @@
+package entity;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** Local changes found by a tree scan, as paths relative to the root directory. */
+@Data
+@NoArgsConstructor
+public class ChangeSet {
+  private List<String> created = new ArrayList<>();
+  private List<String> modified = new ArrayList<>();
+  private List<String> deleted = new ArrayList<>();
+
+  public boolean isEmpty() {
+    return created.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+  }
+
+  public int size() {
+    return created.size() + modified.size() + deleted.size();
+  }
+}
@@ -14,4 +14,13 @@ public class Metadata {
   private Long lastModifiedTime;
   private Integer chunkCount;
   private List<String> chunkHashes;
+
+  /** Version of the manifest on the server, incremented by every upload. */
+  private Long version;
+
+  /** Version the edits apply to, null unless the chunk hashes are sent as a diff. */
+  private Long baseVersion;
+
+  /** Edits turning the manifest of the base version into this one, instead of chunk hashes. */
+  private List<ManifestEdit> edits;
 }
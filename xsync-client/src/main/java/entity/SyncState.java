@@ -0,0 +1,48 @@
+package entity;
+
+import java.util.Objects;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** The state of a local file at the moment it was last synchronized with the server. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncState {
+  private String filepath;
+  private Long lastModifiedTime;
+  private Long size;
+
+  /** Platform file key (device and inode on unix), empty if the platform has none. */
+  private String inode;
+
+  private String fileHash;
+  private Long remoteVersion;
+
+  /** Inode change time in milliseconds, null if the platform does not report it. */
+  private Long ctime;
+
+  /** Sampled content fingerprint, null if fingerprinting was disabled. */
+  private Long fingerprint;
+
+  /**
+   * Checks whether the other state describes the same, unmodified file on disk.
+   *
+   * @param other the state read from the file system
+   * @return true if modification time, size and inode all match, as well as change time and
+   *     fingerprint when both states carry them
+   */
+  public boolean isSameFile(SyncState other) {
+    return other != null
+        && Objects.equals(lastModifiedTime, other.lastModifiedTime)
+        && Objects.equals(size, other.size)
+        && Objects.equals(inode, other.inode)
+        && matchesIfKnown(ctime, other.ctime)
+        && matchesIfKnown(fingerprint, other.fingerprint);
+  }
+
+  private static boolean matchesIfKnown(Long a, Long b) {
+    return a == null || b == null || a.equals(b);
+  }
+}
@@ -0,0 +1,126 @@
+package service;
+
+import entity.ChangeFeed;
+import entity.Chunk;
+import entity.Metadata;
+import entity.Response;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking variant of {@link RemoteService}. Every operation returns a future completed on the
+ * client's executor once the response arrives, so many syncs can be in flight without holding a
+ * thread each. The blocking methods wait for the corresponding future.
+ */
+public interface AsyncRemoteService extends RemoteService {
+
+  CompletableFuture<Response> loginAsync(String username, String password);
+
+  /**
+   * Upload chunk and metadata to the server.
+   *
+   * @param frames framed stream (see {@link utils.FrameCodec}) of the manifest, the chunks missing
+   *     on the server and a trailer with their hash, read once, so the upload is not retried
+   * @return future of the server response indicating success or failure
+   */
+  CompletableFuture<Response> uploadAsync(InputStream frames);
+
+  /**
+   * Fetch a list of chunks from the server using their hash values. The future completes as soon
+   * as the response headers arrive, chunks are read from the body while iterating.
+   *
+   * @param chunkHashes list of chunk hashes
+   * @return future of the chunks corresponding to the given hashes
+   */
+  CompletableFuture<Iterator<Chunk>> fetchChunksAsync(List<String> chunkHashes);
+
+  /**
+   * Fetch every chunk of a stored file in order, resolved by the server from its manifest. The
+   * future completes as soon as the response headers arrive.
+   *
+   * @param path the file reference path, URL encoded
+   * @param version the manifest version the chunks must belong to
+   * @param chunkCount the number of chunks of that version
+   * @return future of the chunks of the file in order
+   */
+  CompletableFuture<Iterator<Chunk>> fetchFileChunksAsync(
+      String path, long version, int chunkCount);
+
+  /**
+   * Fetch the metadata of a file from the server.
+   *
+   * @param path the file reference path, URL encoded
+   * @param since the manifest version held by the client, null to fetch the full manifest
+   * @return future of the metadata, completed with null if the file does not exist
+   */
+  CompletableFuture<Metadata> fetchMetadataAsync(String path, Long since);
+
+  /**
+   * Delete the file from server.
+   *
+   * @param path the filepath of the file, URL encoded.
+   * @return future of the server response indicating success or failure
+   */
+  CompletableFuture<Response> deleteAsync(String path);
+
+  /**
+   * Long-poll the change log of the user on the server.
+   *
+   * @param cursor sequence number of the last change already applied
+   * @return future of the changes after the cursor
+   */
+  CompletableFuture<ChangeFeed> pollChangesAsync(long cursor);
+
+  @Override
+  default Response login(String username, String password) {
+    return await(loginAsync(username, password));
+  }
+
+  @Override
+  default Response upload(InputStream frames) {
+    return await(uploadAsync(frames));
+  }
+
+  @Override
+  default Iterator<Chunk> fetchChunks(List<String> chunkHashes) {
+    return await(fetchChunksAsync(chunkHashes));
+  }
+
+  @Override
+  default Iterator<Chunk> fetchFileChunks(String path, long version, int chunkCount) {
+    return await(fetchFileChunksAsync(path, version, chunkCount));
+  }
+
+  @Override
+  default Metadata fetchMetadata(String path, Long since) {
+    return await(fetchMetadataAsync(path, since));
+  }
+
+  @Override
+  default Response delete(String path) {
+    return await(deleteAsync(path));
+  }
+
+  @Override
+  default ChangeFeed pollChanges(long cursor) {
+    return await(pollChangesAsync(cursor));
+  }
+
+  /**
+   * Waits for the future and rethrows its failure unwrapped, so that blocking callers see the same
+   * exceptions as with a blocking implementation.
+   */
+  private static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
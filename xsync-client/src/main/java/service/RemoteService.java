@@ -1,5 +1,6 @@
 package service;
 
+import entity.ChangeFeed;
 import entity.Chunk;
 import entity.Metadata;
 import entity.Response;
@@ -20,9 +21,11 @@ public interface RemoteService {
   /**
    * Upload chunk and metadata to the server.
    *
+   * @param frames framed stream (see {@link utils.FrameCodec}) of the manifest, the chunks missing
+   *     on the server and a trailer with their hash
    * @return server response indicating success or failure
    */
-  Response upload(InputStream stream, Metadata metadata, String hash);
+  Response upload(InputStream frames);
 
   /**
    * Fetch a list of chunks from the server using their hash values.
@@ -32,18 +35,49 @@ public interface RemoteService {
    */
   Iterator<Chunk> fetchChunks(List<String> chunkHashes);
 
+  /**
+   * Fetch every chunk of a stored file in order, resolved by the server from its manifest, so
+   * that the chunk hashes need not be sent.
+   *
+   * @param path the file reference path, URL encoded
+   * @param version the manifest version the chunks must belong to
+   * @param chunkCount the number of chunks of that version
+   * @return the chunks of the file in order
+   */
+  Iterator<Chunk> fetchFileChunks(String path, long version, int chunkCount);
+
   /**
    * Fetch the metadata of a file from the server.
    *
-   * @param path the file reference path
+   * @param path the file reference path, URL encoded
    * @return metadata object retrieved from the server
    */
-  Metadata fetchMetadata(String path);
+  default Metadata fetchMetadata(String path) {
+    return fetchMetadata(path, null);
+  }
+
+  /**
+   * Fetch the metadata of a file from the server, as a diff against a known manifest version if the
+   * server still has the edits since then.
+   *
+   * @param path the file reference path, URL encoded
+   * @param since the manifest version held by the client, null to fetch the full manifest
+   * @return metadata object retrieved from the server, holding either chunk hashes or edits
+   */
+  Metadata fetchMetadata(String path, Long since);
 
   /**
    * Delete the file from server.
-   * @param path the filepath of the file.
+   * @param path the filepath of the file, URL encoded.
    * @return server response indicating success or failure
    */
   Response delete(String path);
+
+  /**
+   * Long-poll the change log of the user on the server.
+   *
+   * @param cursor sequence number of the last change already applied
+   * @return the changes after the cursor, empty if none was committed before the poll timed out
+   */
+  ChangeFeed pollChanges(long cursor);
 }
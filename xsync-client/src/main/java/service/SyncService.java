@@ -1,5 +1,6 @@
 package service;
 
+import entity.ChangeSet;
 import java.io.File;
 import java.io.IOException;
 
@@ -19,9 +20,22 @@ public interface SyncService {
 
   SyncService setEncrypted(Boolean enabled) throws IOException;
 
+  SyncService setFingerprinted(Boolean enabled);
+
+  SyncService setDeltaEncoded(Boolean enabled);
+
   /** core method */
   Boolean sync(File file);
 
   /** Delete file from server */
   Boolean delete(File file);
+
+  /** Find local changes since the last sync by scanning the root directory */
+  ChangeSet scan() throws IOException;
+
+  /** Scan the root directory and sync every changed file */
+  Boolean reconcile();
+
+  /** Apply the changes made on other devices, waiting for the next one if there is none */
+  Boolean pull();
 }
@@ -0,0 +1,121 @@
+package service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Chunks kept under the cache directory as delta bases, one file per chunk named by its hash. The
+ * cache is bounded by the total size of its chunks, the least recently used ones are evicted first.
+ * Recency survives restarts through the modification times of the files.
+ */
+public class ChunkCache {
+
+  private static final Log log = LogFactory.getLog(ChunkCache.class);
+
+  /** The directory holding the chunks. */
+  private final File dir;
+
+  /** Upper bound of the total size of the cached chunks. */
+  private final long maxBytes;
+
+  /** Sizes of the cached chunks by hash, least recently used first, loaded on first access. */
+  private LinkedHashMap<String, Long> sizes;
+
+  private long totalBytes;
+
+  /**
+   * @param dir the directory holding the chunks, created on first write
+   * @param maxBytes the upper bound of the total size of the cached chunks
+   */
+  public ChunkCache(File dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Gets a cached chunk and marks it as recently used.
+   *
+   * @param hash the chunk hash
+   * @return the chunk data, or null if it is not cached or cannot be read
+   */
+  public synchronized byte[] get(String hash) {
+    if (sizes().get(hash) == null) {
+      return null;
+    }
+    File file = new File(dir, hash);
+    try {
+      byte[] data = FileUtils.readFileToByteArray(file);
+      if (!file.setLastModified(System.currentTimeMillis())) {
+        log.debug("Failed to mark cached chunk as used: " + hash);
+      }
+      return data;
+    } catch (IOException e) {
+      log.warn("Discarding unreadable cached chunk: " + hash, e);
+      remove(hash);
+      return null;
+    }
+  }
+
+  /**
+   * Caches a chunk, evicting the least recently used chunks beyond the size bound.
+   *
+   * @param hash the chunk hash
+   * @param data the chunk data
+   */
+  public synchronized void put(String hash, byte[] data) {
+    if (sizes().get(hash) != null || data.length > maxBytes) {
+      return;
+    }
+    try {
+      FileUtils.writeByteArrayToFile(new File(dir, hash), data);
+    } catch (IOException e) {
+      log.warn("Failed to cache chunk: " + hash, e);
+      return;
+    }
+    sizes.put(hash, (long) data.length);
+    totalBytes += data.length;
+    Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+    while (totalBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      if (!new File(dir, entry.getKey()).delete()) {
+        log.warn("Failed to evict cached chunk: " + entry.getKey());
+      }
+      totalBytes -= entry.getValue();
+      eldest.remove();
+    }
+  }
+
+  private void remove(String hash) {
+    Long size = sizes.remove(hash);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    File file = new File(dir, hash);
+    if (file.exists() && !file.delete()) {
+      log.warn("Failed to remove cached chunk: " + hash);
+    }
+  }
+
+  private LinkedHashMap<String, Long> sizes() {
+    if (sizes == null) {
+      sizes = new LinkedHashMap<>(16, 0.75f, true);
+      File[] files = dir.listFiles(File::isFile);
+      if (files != null) {
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+          sizes.put(file.getName(), file.length());
+          totalBytes += file.length();
+        }
+      }
+    }
+    return sizes;
+  }
+}
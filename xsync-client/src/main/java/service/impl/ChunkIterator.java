@@ -0,0 +1,119 @@
+package service.impl;
+
+import entity.Chunk;
+import io.github.zabuzard.fastcdc4j.internal.util.Validations;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import utils.FrameCodec;
+
+/**
+ * Iterator for streaming chunks from a remote response, either framed (see {@link FrameCodec}) or
+ * as length prefixed chunks. Implements AutoCloseable to ensure resource cleanup.
+ */
+class ChunkIterator implements Iterator<Chunk>, AutoCloseable {
+
+  private static final Log log = LogFactory.getLog(ChunkIterator.class);
+
+  private final DataInputStream inputStream;
+  private final int totalChunks;
+  private int currentChunk = 0;
+  private boolean hasMore = true;
+
+  /** Reader of a framed response, null for length prefixed chunks. */
+  private FrameCodec.Reader frames;
+
+  /**
+   * Constructs a ChunkIterator for streaming chunk data.
+   *
+   * @param inputStream the InputStream from the ResponseBody
+   * @param totalChunks the expected number of chunks
+   */
+  public ChunkIterator(InputStream inputStream, int totalChunks) {
+    Objects.requireNonNull(inputStream, "inputStream cannot be null");
+    Validations.requirePositive(totalChunks, "totalChunks");
+    this.inputStream = new DataInputStream(new BufferedInputStream(inputStream));
+    this.totalChunks = totalChunks;
+    try {
+      if (FrameCodec.isFramed(this.inputStream)) {
+        frames = new FrameCodec.Reader(this.inputStream);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read chunk stream header", e);
+    }
+  }
+
+  /**
+   * Checks if more chunks are available.
+   *
+   * @return true if more chunks are available, false otherwise
+   */
+  @Override
+  public boolean hasNext() {
+    return hasMore && currentChunk < totalChunks;
+  }
+
+  /**
+   * Reads the next chunk from the stream.
+   *
+   * @return the next Chunk object
+   * @throws NoSuchElementException if no more chunks are available
+   */
+  @Override
+  public Chunk next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException("No more chunks available");
+    }
+
+    try {
+      if (frames != null) {
+        return nextFrame();
+      }
+      int chunkLength = inputStream.readInt();
+      if (chunkLength <= 0) {
+        throw new IllegalStateException("Invalid chunk length: " + chunkLength);
+      }
+
+      byte[] chunkData = new byte[chunkLength];
+      inputStream.readFully(chunkData);
+
+      Chunk chunk = new Chunk(chunkData);
+      currentChunk++;
+      return chunk;
+    } catch (IOException e) {
+      hasMore = false;
+      log.error("Failed to read chunk", e);
+      throw new RuntimeException("Chunk read error: " + e.getMessage(), e);
+    }
+  }
+
+  private Chunk nextFrame() throws IOException {
+    if (frames.next() != FrameCodec.CHUNK) {
+      throw new IllegalStateException("Chunk stream ended after " + currentChunk + " chunks");
+    }
+    byte[] data = frames.getData();
+    currentChunk++;
+    // The trailer after the last chunk confirms that the server sent every chunk
+    if (currentChunk == totalChunks && frames.next() != FrameCodec.END) {
+      throw new IllegalStateException("Chunk stream trailer expected");
+    }
+    return new Chunk(data);
+  }
+
+  /** Closes the underlying stream. */
+  @Override
+  public void close() {
+    try {
+      inputStream.close();
+    } catch (IOException e) {
+      log.error("Failed to close chunk iterator stream", e);
+    }
+  }
+}
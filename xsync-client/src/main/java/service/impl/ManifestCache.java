@@ -0,0 +1,99 @@
+package service.impl;
+
+import entity.Metadata;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import utils.FrameCodec;
+
+/**
+ * Last known remote manifest of every file, stored as framed manifests under the cache directory.
+ * Its version is sent along with metadata requests, so the server can answer with a diff, and it is
+ * the base that uploaded manifests are diffed against.
+ */
+public class ManifestCache {
+
+  private static final Log log = LogFactory.getLog(ManifestCache.class);
+
+  /** The directory holding one file per cached manifest. */
+  private final File dir;
+
+  /**
+   * @param dir the directory holding the manifests, created on first write
+   */
+  public ManifestCache(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Gets the cached manifest of a file.
+   *
+   * @param filepath the path relative to the root directory
+   * @return the manifest, or null if none is cached or it cannot be read
+   */
+  public Metadata get(String filepath) {
+    File file = fileOf(filepath);
+    if (!file.exists()) {
+      return null;
+    }
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      Metadata metadata = FrameCodec.readManifest(in);
+      return filepath.equals(metadata.getFilepath()) ? metadata : null;
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Discarding unreadable manifest of " + filepath + ": " + e.getMessage());
+      remove(filepath);
+      return null;
+    }
+  }
+
+  /**
+   * Caches a full manifest, replacing the previous one atomically.
+   *
+   * @param metadata the manifest, with its version and chunk hashes
+   */
+  public void put(Metadata metadata) {
+    if (metadata.getVersion() == null || metadata.getChunkHashes() == null) {
+      return;
+    }
+    File file = fileOf(metadata.getFilepath());
+    File tmpFile = new File(dir, file.getName() + ".tmp");
+    try {
+      Files.createDirectories(dir.toPath());
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+        String first = metadata.getChunkHashes().isEmpty() ? "" : metadata.getChunkHashes().get(0);
+        FrameCodec.Writer writer = new FrameCodec.Writer(out, Math.max(1, first.length() / 2));
+        writer.writeHeader();
+        writer.writeManifest(metadata);
+        writer.writeEnd(null);
+      }
+      Files.move(
+          tmpFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Only costs a full manifest on the next exchange
+      log.warn("Failed to cache manifest of " + metadata.getFilepath(), e);
+    }
+  }
+
+  /**
+   * Forgets the manifest of a file.
+   *
+   * @param filepath the path relative to the root directory
+   */
+  public void remove(String filepath) {
+    File file = fileOf(filepath);
+    if (file.exists() && !file.delete()) {
+      log.warn("Failed to remove cached manifest of " + filepath);
+    }
+  }
+
+  private File fileOf(String filepath) {
+    return new File(dir, DigestUtils.sha256Hex(filepath.getBytes(StandardCharsets.UTF_8)));
+  }
+}
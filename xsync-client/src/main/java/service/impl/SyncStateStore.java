@@ -0,0 +1,330 @@
+package service.impl;
+
+import entity.SyncState;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import org.apache.commons.codec.digest.XXHash32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import utils.Const;
+
+/**
+ * Embedded store of the last synchronized state of every local file. Updates are appended to a log
+ * under the cache directory and indexed in memory, so opening the store only replays the log. The
+ * log is compacted once stale records outnumber the live ones.
+ */
+public class SyncStateStore implements Closeable {
+
+  private static final Log log = LogFactory.getLog(SyncStateStore.class);
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+
+  /** Whether the platform supports the unix attribute view, which exposes the change time. */
+  private static final boolean UNIX_VIEW =
+      FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+  /** Upper bound of a single record, larger lengths can only come from a torn write. */
+  private static final int MAX_RECORD_SIZE = 1 << 20;
+
+  /** The append-only log file. */
+  private final File logFile;
+
+  /** In-memory index from relative file path to its latest state. */
+  private final Map<String, SyncState> index = new HashMap<>();
+
+  /** Output stream appending to the log. */
+  private DataOutputStream out;
+
+  /** Number of records in the log, including stale ones. */
+  private long records;
+
+  /**
+   * Opens the store located in the given directory, replaying the existing log if any.
+   *
+   * @param dir the directory holding the log
+   * @throws IOException if the log cannot be read or opened for writing
+   */
+  public SyncStateStore(File dir) throws IOException {
+    Objects.requireNonNull(dir, "dir");
+    this.logFile = new File(dir, Const.stateLogFilename);
+    boolean truncated = replay();
+    if (truncated) {
+      log.warn("Discarding torn tail of state log: " + logFile);
+      compact();
+    } else {
+      out = openLog(true);
+    }
+  }
+
+  /**
+   * Reads the current state of a file from the file system.
+   *
+   * @param file the local file
+   * @param filepath the path of the file relative to the root directory
+   * @return the state, without file hash and remote version
+   * @throws IOException if the attributes cannot be read
+   */
+  public static SyncState stat(File file, String filepath) throws IOException {
+    return stat(file.toPath(), filepath, false);
+  }
+
+  /**
+   * Reads the current state of a file from the file system, using a single attribute read where
+   * the platform supports the unix view.
+   *
+   * @param path the local file
+   * @param filepath the path of the file relative to the root directory
+   * @param fingerprinted whether to also sample the content fingerprint
+   * @return the state, without file hash and remote version
+   * @throws IOException if the attributes cannot be read
+   */
+  public static SyncState stat(Path path, String filepath, boolean fingerprinted)
+      throws IOException {
+    long lastModifiedTime;
+    long size;
+    Object fileKey;
+    Long ctime = null;
+    if (UNIX_VIEW) {
+      Map<String, Object> attrs =
+          Files.readAttributes(path, "unix:lastModifiedTime,size,fileKey,ctime");
+      lastModifiedTime = ((FileTime) attrs.get("lastModifiedTime")).toMillis();
+      size = (Long) attrs.get("size");
+      fileKey = attrs.get("fileKey");
+      ctime = ((FileTime) attrs.get("ctime")).toMillis();
+    } else {
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      lastModifiedTime = attrs.lastModifiedTime().toMillis();
+      size = attrs.size();
+      fileKey = attrs.fileKey();
+    }
+    return new SyncState(
+        filepath,
+        lastModifiedTime,
+        size,
+        fileKey == null ? "" : fileKey.toString(),
+        null,
+        null,
+        ctime,
+        fingerprinted ? fingerprint(path, size) : null);
+  }
+
+  /**
+   * Computes a cheap fingerprint of a file from a few fixed-size samples at its start, middle and
+   * end. It catches most rewrites that keep size and a coarse modification time unchanged without
+   * reading the whole file.
+   *
+   * @param path the local file
+   * @param size the file size
+   * @return the fingerprint
+   * @throws IOException if the file cannot be read
+   */
+  public static long fingerprint(Path path, long size) throws IOException {
+    XXHash32 hash = new XXHash32();
+    byte[] sample = new byte[Const.fingerprintSampleSize];
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long[] offsets = {0, Math.max(0, size / 2 - sample.length / 2), size - sample.length};
+      for (long offset : offsets) {
+        ByteBuffer buffer = ByteBuffer.wrap(sample);
+        long position = Math.max(0, offset);
+        int read;
+        do {
+          read = channel.read(buffer, position + buffer.position());
+        } while (read > 0 && buffer.hasRemaining());
+        hash.update(sample, 0, buffer.position());
+      }
+    }
+    return (hash.getValue() << 32) ^ size;
+  }
+
+  /**
+   * Gets a copy of all recorded states, used as the snapshot to compare a tree scan against.
+   *
+   * @return the states by relative file path
+   */
+  public synchronized Map<String, SyncState> snapshot() {
+    return new HashMap<>(index);
+  }
+
+  /**
+   * Gets the last synchronized state of a file.
+   *
+   * @param filepath the path relative to the root directory
+   * @return the state, or null if the file has never been synchronized
+   */
+  public synchronized SyncState get(String filepath) {
+    return index.get(filepath);
+  }
+
+  /**
+   * Records the synchronized state of a file.
+   *
+   * @param state the state to record
+   * @throws IOException if the record cannot be appended
+   */
+  public synchronized void put(SyncState state) throws IOException {
+    Objects.requireNonNull(state, "state");
+    index.put(state.getFilepath(), state);
+    append(encode(OP_PUT, state.getFilepath(), state));
+  }
+
+  /**
+   * Forgets the state of a file.
+   *
+   * @param filepath the path relative to the root directory
+   * @throws IOException if the record cannot be appended
+   */
+  public synchronized void remove(String filepath) throws IOException {
+    if (index.remove(filepath) != null) {
+      append(encode(OP_REMOVE, filepath, null));
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  /**
+   * Replays the log into the in-memory index.
+   *
+   * @return true if the log ends with an incomplete or corrupted record
+   */
+  private boolean replay() throws IOException {
+    if (!logFile.exists()) {
+      return false;
+    }
+    long valid = 0;
+    try (DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new FileInputStream(logFile), Const.bufferSize))) {
+      while (true) {
+        try {
+          int length = in.readInt();
+          if (length <= 0 || length > MAX_RECORD_SIZE) {
+            break;
+          }
+          byte[] payload = new byte[length];
+          in.readFully(payload);
+          if (in.readLong() != checksum(payload)) {
+            break;
+          }
+          apply(payload);
+          records++;
+          valid += Integer.BYTES + length + Long.BYTES;
+        } catch (EOFException e) {
+          break;
+        }
+      }
+    }
+    return valid < logFile.length();
+  }
+
+  private void apply(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte op = in.readByte();
+    String filepath = in.readUTF();
+    if (op == OP_REMOVE) {
+      index.remove(filepath);
+      return;
+    }
+    SyncState state = new SyncState();
+    state.setFilepath(filepath);
+    state.setLastModifiedTime(in.readLong());
+    state.setSize(in.readLong());
+    state.setInode(in.readUTF());
+    state.setFileHash(in.readUTF());
+    state.setRemoteVersion(in.readLong());
+    // Change time and fingerprint were added later, older records end here
+    if (in.available() > 0) {
+      state.setCtime(in.readBoolean() ? in.readLong() : null);
+      state.setFingerprint(in.readBoolean() ? in.readLong() : null);
+    }
+    index.put(filepath, state);
+  }
+
+  private byte[] encode(byte op, String filepath, SyncState state) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(buffer);
+    dos.writeByte(op);
+    dos.writeUTF(filepath);
+    if (op == OP_PUT) {
+      dos.writeLong(Objects.requireNonNullElse(state.getLastModifiedTime(), 0L));
+      dos.writeLong(Objects.requireNonNullElse(state.getSize(), 0L));
+      dos.writeUTF(Objects.requireNonNullElse(state.getInode(), ""));
+      dos.writeUTF(Objects.requireNonNullElse(state.getFileHash(), ""));
+      dos.writeLong(Objects.requireNonNullElse(state.getRemoteVersion(), 0L));
+      writeOptional(dos, state.getCtime());
+      writeOptional(dos, state.getFingerprint());
+    }
+    dos.flush();
+    return buffer.toByteArray();
+  }
+
+  private static void writeOptional(DataOutputStream dos, Long value) throws IOException {
+    dos.writeBoolean(value != null);
+    if (value != null) {
+      dos.writeLong(value);
+    }
+  }
+
+  private void append(byte[] payload) throws IOException {
+    writeRecord(out, payload);
+    out.flush();
+    records++;
+    if (records > Const.stateCompactionThreshold && records > 2L * index.size()) {
+      compact();
+    }
+  }
+
+  /** Rewrites the log so that it only holds the live states, then swaps it in atomically. */
+  private void compact() throws IOException {
+    close();
+    File tmpFile = new File(logFile.getParentFile(), logFile.getName() + ".tmp");
+    try (DataOutputStream tmp = openLog(tmpFile, false)) {
+      for (SyncState state : index.values()) {
+        writeRecord(tmp, encode(OP_PUT, state.getFilepath(), state));
+      }
+    }
+    Files.move(
+        tmpFile.toPath(),
+        logFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    records = index.size();
+    out = openLog(true);
+    log.debug("Compacted state log to " + records + " records");
+  }
+
+  private void writeRecord(DataOutputStream dos, byte[] payload) throws IOException {
+    dos.writeInt(payload.length);
+    dos.write(payload);
+    dos.writeLong(checksum(payload));
+  }
+
+  private DataOutputStream openLog(boolean append) throws IOException {
+    return openLog(logFile, append);
+  }
+
+  private static DataOutputStream openLog(File file, boolean append) throws IOException {
+    return new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file, append), Const.bufferSize));
+  }
+
+  private static long checksum(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return crc.getValue();
+  }
+}
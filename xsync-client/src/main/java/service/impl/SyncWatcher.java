@@ -0,0 +1,301 @@
+package service.impl;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import service.SyncService;
+
+/**
+ * Watches the root directory tree and synchronizes files as they change. Directories are registered
+ * recursively with a {@link WatchService}, bursts of events for the same file are coalesced into a
+ * single sync after a quiet period, and an event overflow falls back to a reconciling scan of the
+ * tree. The watcher thread blocks on the watch service, so no CPU is spent while the tree is idle.
+ */
+public class SyncWatcher implements Closeable {
+
+  private static final Log log = LogFactory.getLog(SyncWatcher.class);
+
+  /** Service used to synchronize changed files. */
+  private final SyncService service;
+
+  /** Root directory of the watched tree. */
+  private final Path rootDir;
+
+  /** Directories whose events are ignored, such as the cache directory. */
+  private final Set<Path> excludedDirs = new HashSet<>();
+
+  /** Registered directories by their watch key. */
+  private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+  /** Registered directories, to tell a deleted directory from a deleted file. */
+  private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+
+  /** Pending syncs by file, rescheduled on every new event for that file. */
+  private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+  /** Time of the first event of the current burst, bounding how long a sync can be postponed. */
+  private final Map<Path, Long> burstStart = new ConcurrentHashMap<>();
+
+  /** Single worker running the syncs, so the service is never called concurrently. */
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "xsync-sync");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** Quiet period after the last event before a file is synchronized. */
+  private Duration debounce = Duration.ofSeconds(2);
+
+  /** Longest time a file under constant modification waits before it is synchronized anyway. */
+  private Duration maxDelay = Duration.ofSeconds(30);
+
+  private WatchService watchService;
+  private Thread watcherThread;
+  private volatile boolean running;
+
+  /**
+   * @param service the service used to synchronize files
+   * @param rootDir the root directory of the service
+   */
+  public SyncWatcher(SyncService service, File rootDir) {
+    this.service = Objects.requireNonNull(service, "service");
+    this.rootDir = Objects.requireNonNull(rootDir, "rootDir").toPath().toAbsolutePath().normalize();
+  }
+
+  /**
+   * Sets the quiet period after the last event before a file is synchronized.
+   *
+   * @param debounce the quiet period
+   * @return this instance for method chaining
+   */
+  public SyncWatcher setDebounce(Duration debounce) {
+    this.debounce = Objects.requireNonNull(debounce, "debounce");
+    return this;
+  }
+
+  /**
+   * Sets the longest time a sync may be postponed by a continuous stream of events.
+   *
+   * @param maxDelay the maximum delay
+   * @return this instance for method chaining
+   */
+  public SyncWatcher setMaxDelay(Duration maxDelay) {
+    this.maxDelay = Objects.requireNonNull(maxDelay, "maxDelay");
+    return this;
+  }
+
+  /**
+   * Excludes a directory from watching, typically the cache directory if it lies under the root.
+   *
+   * @param dir the directory to exclude
+   * @return this instance for method chaining
+   */
+  public SyncWatcher exclude(File dir) {
+    Objects.requireNonNull(dir, "dir");
+    excludedDirs.add(dir.toPath().toAbsolutePath().normalize());
+    return this;
+  }
+
+  /**
+   * Registers the whole tree and starts watching it in a background thread.
+   *
+   * @return this instance for method chaining
+   * @throws IOException if the watch service cannot be created or the tree cannot be registered
+   */
+  public synchronized SyncWatcher start() throws IOException {
+    if (running) {
+      return this;
+    }
+    watchService = rootDir.getFileSystem().newWatchService();
+    registerTree(rootDir);
+    running = true;
+    watcherThread = new Thread(this::processEvents, "xsync-watcher");
+    watcherThread.setDaemon(true);
+    watcherThread.start();
+    log.info("Watching " + rootDir + " (" + keys.size() + " directories)");
+    return this;
+  }
+
+  /** Stops watching, running syncs are allowed to finish but pending ones are dropped. */
+  @Override
+  public synchronized void close() throws IOException {
+    running = false;
+    if (watchService != null) {
+      watchService.close();
+    }
+    scheduler.shutdownNow();
+    pending.clear();
+    burstStart.clear();
+    keys.clear();
+    dirs.clear();
+  }
+
+  /** Blocks on the watch service and dispatches events until closed. */
+  private void processEvents() {
+    while (running) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      }
+      Path dir = keys.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW) {
+          log.warn("Watch events overflowed, rescanning " + rootDir);
+          rescan();
+          continue;
+        }
+        if (dir == null) {
+          continue;
+        }
+        Path path = dir.resolve((Path) event.context());
+        if (isExcluded(path)) {
+          continue;
+        }
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+          // Files may have been written before the directory got registered
+          try {
+            registerTree(path);
+            scheduleTree(path);
+          } catch (IOException e) {
+            log.error("Failed to register directory: " + path, e);
+          }
+        } else if (event.kind() == ENTRY_DELETE && dirs.remove(path)) {
+          // Deletions below a removed directory are not reported, reconciling deletes its files
+          log.info("Directory removed, rescanning: " + path);
+          dirs.removeIf(d -> d.startsWith(path));
+          rescan();
+        } else if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+          schedule(path);
+        }
+      }
+      if (!key.reset()) {
+        Path removed = keys.remove(key);
+        if (removed != null) {
+          dirs.remove(removed);
+        }
+      }
+    }
+  }
+
+  /**
+   * Schedules a sync of the file after the quiet period, replacing any pending sync of it.
+   *
+   * @param path the changed file
+   */
+  private void schedule(Path path) {
+    long now = System.currentTimeMillis();
+    long start = burstStart.computeIfAbsent(path, p -> now);
+    long delay = Math.min(debounce.toMillis(), Math.max(0, start + maxDelay.toMillis() - now));
+    pending.compute(
+        path,
+        (p, previous) -> {
+          if (previous != null) {
+            previous.cancel(false);
+          }
+          try {
+            return scheduler.schedule(() -> syncFile(p), delay, TimeUnit.MILLISECONDS);
+          } catch (RejectedExecutionException e) {
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Synchronizes a file whose burst of events has settled, or deletes it remotely if it is gone.
+   *
+   * @param path the file to synchronize
+   */
+  private void syncFile(Path path) {
+    pending.remove(path);
+    burstStart.remove(path);
+    File file = path.toFile();
+    boolean success = file.exists() ? service.sync(file) : service.delete(file);
+    if (!success) {
+      log.warn("Failed to synchronize changed file: " + path);
+    }
+  }
+
+  /** Registers every directory again and reconciles the tree, recovering lost events. */
+  private void rescan() {
+    try {
+      registerTree(rootDir);
+      scheduler.execute(
+          () -> {
+            if (!service.reconcile()) {
+              log.warn("Failed to reconcile " + rootDir + " after lost events");
+            }
+          });
+    } catch (IOException e) {
+      log.error("Failed to rescan " + rootDir, e);
+    } catch (RejectedExecutionException e) {
+      log.debug("Watcher closed, skipping rescan");
+    }
+  }
+
+  /**
+   * Schedules a sync of every regular file below the directory.
+   *
+   * @param dir the directory
+   * @throws IOException if the tree cannot be walked
+   */
+  private void scheduleTree(Path dir) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths
+          .filter(p -> !isExcluded(p))
+          .filter(p -> Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS))
+          .forEach(this::schedule);
+    }
+  }
+
+  /**
+   * Registers the directory and all its subdirectories with the watch service.
+   *
+   * @param start the top directory
+   * @throws IOException if a directory cannot be registered
+   */
+  private void registerTree(Path start) throws IOException {
+    Files.walkFileTree(
+        start,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            if (isExcluded(dir)) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+            dirs.add(dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            log.warn("Cannot access " + file + ": " + e.getMessage());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private boolean isExcluded(Path path) {
+    for (Path excluded : excludedDirs) {
+      if (path.startsWith(excluded)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
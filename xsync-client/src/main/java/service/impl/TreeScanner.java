@@ -0,0 +1,215 @@
+package service.impl;
+
+import entity.ChangeSet;
+import entity.SyncState;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Walks the root directory in parallel and compares every file with its last synchronized state.
+ * A file counts as modified when its size, modification time, change time or inode differ from the
+ * snapshot; with fingerprinting enabled, files whose attributes all match are additionally checked
+ * against a sampled content fingerprint, for file systems with coarse modification times. Only the
+ * attributes of each file are read otherwise, so reconciling a large tree is bound by directory
+ * listing and stat calls spread over all cores.
+ */
+public class TreeScanner {
+
+  private static final Log log = LogFactory.getLog(TreeScanner.class);
+
+  /** Root directory of the scanned tree, paths are reported relative to it. */
+  private final Path rootDir;
+
+  /** Absolute directories skipped by the scan. */
+  private final Set<Path> excludedDirs = new HashSet<>();
+
+  /** Number of threads walking the tree. */
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /** Whether to compare sampled content fingerprints of otherwise unchanged files. */
+  private boolean fingerprinted = false;
+
+  /**
+   * @param rootDir the root directory, in the same form used to relativize synchronized paths
+   */
+  public TreeScanner(Path rootDir) {
+    this.rootDir = Objects.requireNonNull(rootDir, "rootDir");
+  }
+
+  /**
+   * Sets the number of threads walking the tree.
+   *
+   * @param parallelism the number of threads
+   * @return this instance for method chaining
+   */
+  public TreeScanner setParallelism(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Enables or disables the sampled content fingerprint check.
+   *
+   * @param fingerprinted true to compare fingerprints of files whose attributes are unchanged
+   * @return this instance for method chaining
+   */
+  public TreeScanner setFingerprinted(boolean fingerprinted) {
+    this.fingerprinted = fingerprinted;
+    return this;
+  }
+
+  /**
+   * Excludes a directory from the scan.
+   *
+   * @param dir the directory to exclude
+   * @return this instance for method chaining
+   */
+  public TreeScanner exclude(Path dir) {
+    excludedDirs.add(Objects.requireNonNull(dir, "dir").toAbsolutePath().normalize());
+    return this;
+  }
+
+  /**
+   * Scans the tree and compares it with the snapshot of synchronized states.
+   *
+   * @param snapshot the last synchronized states by relative path
+   * @return the files created, modified or deleted since they were last synchronized
+   */
+  public ChangeSet scan(Map<String, SyncState> snapshot) {
+    Objects.requireNonNull(snapshot, "snapshot");
+    long start = System.currentTimeMillis();
+    Scan scan = new Scan(snapshot);
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.invoke(new DirectoryTask(scan, rootDir));
+    } finally {
+      pool.shutdown();
+    }
+
+    ChangeSet changes = new ChangeSet();
+    changes.getCreated().addAll(scan.created);
+    changes.getModified().addAll(scan.modified);
+    for (String path : snapshot.keySet()) {
+      if (!scan.seen.contains(path) && !scan.isBelowUnreadable(rootDir.resolve(path))) {
+        changes.getDeleted().add(path);
+      }
+    }
+    Collections.sort(changes.getCreated());
+    Collections.sort(changes.getModified());
+    Collections.sort(changes.getDeleted());
+    log.info(
+        String.format(
+            "Scanned %d files in %d ms, %d changed",
+            scan.seen.size() + scan.created.size(),
+            System.currentTimeMillis() - start,
+            changes.size()));
+    return changes;
+  }
+
+  private boolean isExcluded(Path path) {
+    if (excludedDirs.isEmpty()) {
+      return false;
+    }
+    Path absolute = path.toAbsolutePath().normalize();
+    for (Path excluded : excludedDirs) {
+      if (absolute.startsWith(excluded)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Shared state of one scan. */
+  private static final class Scan {
+    private final Map<String, SyncState> snapshot;
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final Queue<String> created = new ConcurrentLinkedQueue<>();
+    private final Queue<String> modified = new ConcurrentLinkedQueue<>();
+
+    /** Directories that could not be listed, files below them must not be reported deleted. */
+    private final Queue<Path> unreadable = new ConcurrentLinkedQueue<>();
+
+    private Scan(Map<String, SyncState> snapshot) {
+      this.snapshot = snapshot;
+    }
+
+    private boolean isBelowUnreadable(Path path) {
+      for (Path dir : unreadable) {
+        if (path.startsWith(dir)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** Lists one directory, compares its files and forks a task per subdirectory. */
+  private final class DirectoryTask extends RecursiveAction {
+    @Serial private static final long serialVersionUID = 1L;
+
+    // Tasks only run within one scan and are never serialized
+    private final transient Scan scan;
+    private final transient Path dir;
+
+    private DirectoryTask(Scan scan, Path dir) {
+      this.scan = scan;
+      this.dir = dir;
+    }
+
+    @Override
+    protected void compute() {
+      List<DirectoryTask> subtasks = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          if (isExcluded(entry)) {
+            continue;
+          }
+          if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+            subtasks.add(new DirectoryTask(scan, entry));
+          } else if (Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)) {
+            compare(entry);
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        log.warn("Cannot list directory " + dir + ": " + e.getMessage());
+        scan.unreadable.add(dir);
+      }
+      invokeAll(subtasks);
+    }
+
+    private void compare(Path file) {
+      String path = rootDir.relativize(file).normalize().toString();
+      SyncState last = scan.snapshot.get(path);
+      if (last == null) {
+        scan.created.add(path);
+        return;
+      }
+      scan.seen.add(path);
+      try {
+        SyncState current = SyncStateStore.stat(file, path, false);
+        if (!last.isSameFile(current)) {
+          scan.modified.add(path);
+        } else if (fingerprinted
+            && last.getFingerprint() != null
+            && last.getFingerprint() != SyncStateStore.fingerprint(file, current.getSize())) {
+          scan.modified.add(path);
+        }
+      } catch (IOException e) {
+        // The file vanished or became unreadable during the scan, let the next sync sort it out
+        log.debug("Cannot stat " + file + ": " + e.getMessage());
+        scan.modified.add(path);
+      }
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package service.impl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import entity.ChangeFeed;
+import entity.Chunk;
+import entity.Metadata;
+import entity.Response;
+import io.github.zabuzard.fastcdc4j.internal.util.Validations;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import service.AsyncRemoteService;
+import utils.Const;
+import utils.FrameCodec;
+
+/**
+ * {@link AsyncRemoteService} built on the JDK {@link HttpClient}. Requests are sent over HTTP/2
+ * where the server supports it, so concurrent calls are multiplexed as streams over a few
+ * connections instead of each holding a pooled connection and a blocked thread. The base url and
+ * token belong to the instance, and several instances may share one client, and thereby its
+ * connections, by passing it to the constructor.
+ */
+public class XSyncAsyncRemoteService implements AsyncRemoteService {
+
+  private static final Log log = LogFactory.getLog(XSyncAsyncRemoteService.class);
+
+  private final Gson gson = new Gson();
+  private final HttpClient client;
+  private final String baseUrl;
+  private volatile String token;
+
+  public XSyncAsyncRemoteService() {
+    this(Const.defaultUrl);
+  }
+
+  /**
+   * Creates a service with its own HTTP/2 client.
+   *
+   * @param baseUrl the server url
+   */
+  public XSyncAsyncRemoteService(String baseUrl) {
+    this(
+        baseUrl,
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(Const.connectTimeout))
+            .build());
+  }
+
+  /**
+   * Creates a service sending its requests through the given client, so that services for
+   * different accounts on the same server share its connections.
+   *
+   * @param baseUrl the server url
+   * @param client the client to send requests with
+   */
+  public XSyncAsyncRemoteService(String baseUrl, HttpClient client) {
+    Validations.require(StringUtils.isNotEmpty(baseUrl), "baseUrl cannot be empty");
+    this.baseUrl = StringUtils.removeEnd(baseUrl, "/");
+    this.client = Objects.requireNonNull(client, "client cannot be null");
+  }
+
+  @Override
+  public void setToken(String token) {
+    Validations.require(StringUtils.isNotEmpty(token), "token cannot be empty");
+    this.token = token;
+  }
+
+  @Override
+  public CompletableFuture<Response> loginAsync(String username, String password) {
+    Validations.require(StringUtils.isNotEmpty(username), "username cannot be empty");
+    Validations.require(StringUtils.isNotEmpty(password), "password cannot be empty");
+    String form = "email=" + encode(username) + "&password=" + encode(password);
+    HttpRequest request =
+        request("/user/login")
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(BodyPublishers.ofString(form))
+            .build();
+    return send(request, "Login Failed")
+        .thenApply(body -> gson.fromJson(body, Response.class));
+  }
+
+  @Override
+  public CompletableFuture<Response> uploadAsync(InputStream frames) {
+    Objects.requireNonNull(frames, "frames cannot be null");
+    // The stream is consumed by the first attempt, a resent request must fail instead of sending
+    // the rest of it as the whole body
+    AtomicBoolean opened = new AtomicBoolean();
+    HttpRequest request =
+        request("/chunk/upload/stream")
+            .header("Content-Type", FrameCodec.MEDIA_TYPE)
+            .header("X-Hash-Algorithm", Const.hashAlgorithm)
+            .POST(
+                BodyPublishers.ofInputStream(
+                    () -> {
+                      if (!opened.compareAndSet(false, true)) {
+                        throw new IllegalStateException("Upload body cannot be sent twice");
+                      }
+                      return frames;
+                    }))
+            .build();
+    return send(request, "Upload Chunks Failed")
+        .thenApply(body -> gson.fromJson(body, Response.class));
+  }
+
+  @Override
+  public CompletableFuture<Iterator<Chunk>> fetchChunksAsync(List<String> chunkHashes) {
+    Validations.require(CollectionUtils.isNotEmpty(chunkHashes), "chunkHashes cannot be empty");
+    HttpRequest request =
+        request("/chunk/fetch/batch")
+            .header("Content-Type", "application/json")
+            .header("Accept", FrameCodec.MEDIA_TYPE)
+            .POST(BodyPublishers.ofString(gson.toJson(chunkHashes)))
+            .build();
+    return client
+        .sendAsync(request, BodyHandlers.ofInputStream())
+        .thenApply(
+            response -> {
+              if (!isSuccess(response)) {
+                closeQuietly(response.body());
+                throw new IllegalStateException(
+                    "Fetch Chunks Failed: HTTP " + response.statusCode());
+              }
+              return new ChunkIterator(response.body(), chunkHashes.size());
+            });
+  }
+
+  @Override
+  public CompletableFuture<Iterator<Chunk>> fetchFileChunksAsync(
+      String path, long version, int chunkCount) {
+    Validations.require(StringUtils.isNotEmpty(path), "path cannot be empty");
+    if (chunkCount == 0) {
+      return CompletableFuture.completedFuture(Collections.emptyIterator());
+    }
+    HttpRequest request =
+        request("/chunk/fetch/file?path=" + encode(path) + "&version=" + version)
+            .header("Accept", FrameCodec.MEDIA_TYPE)
+            .GET()
+            .build();
+    return client
+        .sendAsync(request, BodyHandlers.ofInputStream())
+        .thenApply(
+            response -> {
+              if (!isSuccess(response)) {
+                closeQuietly(response.body());
+                throw new IllegalStateException("Fetch File Failed: HTTP " + response.statusCode());
+              }
+              return new ChunkIterator(response.body(), chunkCount);
+            });
+  }
+
+  @Override
+  public CompletableFuture<Metadata> fetchMetadataAsync(String path, Long since) {
+    Validations.require(StringUtils.isNotEmpty(path), "path cannot be empty");
+    String query = "?path=" + encode(path) + (since != null ? "&since=" + since : "");
+    HttpRequest request =
+        request("/metadata/fetch" + query)
+            .header("Accept", FrameCodec.MEDIA_TYPE)
+            .GET()
+            .build();
+    return client
+        .sendAsync(request, BodyHandlers.ofByteArray())
+        .thenApply(
+            response -> {
+              if (response.statusCode() == 404) {
+                return null;
+              }
+              if (!isSuccess(response)) {
+                throw new IllegalStateException(
+                    "Fetch Metadata Failed: HTTP " + response.statusCode());
+              }
+              try {
+                return FrameCodec.readManifest(new ByteArrayInputStream(response.body()));
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+  }
+
+  @Override
+  public CompletableFuture<Response> deleteAsync(String path) {
+    Validations.require(StringUtils.isNotEmpty(path), "path cannot be empty");
+    HttpRequest request = request("/metadata/delete?path=" + encode(path)).DELETE().build();
+    return send(request, "Delete file Failed")
+        .thenApply(body -> gson.fromJson(body, Response.class));
+  }
+
+  @Override
+  public CompletableFuture<ChangeFeed> pollChangesAsync(long cursor) {
+    HttpRequest request =
+        request("/change/poll?cursor=" + cursor)
+            .timeout(Duration.ofMillis(Const.changePollTimeout))
+            .GET()
+            .build();
+    return send(request, "Poll Changes Failed")
+        .thenApply(body -> gson.fromJson(bodyOf(body), ChangeFeed.class));
+  }
+
+  private HttpRequest.Builder request(String path) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path));
+    String token = this.token;
+    if (token != null) {
+      builder.header("Authorization", "Bearer " + token);
+    }
+    return builder;
+  }
+
+  /**
+   * Sends the request and completes with the response body as a string, or exceptionally if the
+   * server answered with an error status.
+   */
+  private CompletableFuture<String> send(HttpRequest request, String failure) {
+    return client
+        .sendAsync(request, BodyHandlers.ofString(StandardCharsets.UTF_8))
+        .thenApply(
+            response -> {
+              if (!isSuccess(response)) {
+                log.debug(failure + ": " + response.body());
+                throw new IllegalStateException(failure + ": HTTP " + response.statusCode());
+              }
+              return response.body();
+            });
+  }
+
+  /** Extracts the body of a server {@link Response} as a json string, null if it has none. */
+  private String bodyOf(String json) {
+    JsonElement body = gson.fromJson(json, JsonObject.class).get("body");
+    return body == null || body.isJsonNull() ? null : body.toString();
+  }
+
+  private static boolean isSuccess(HttpResponse<?> response) {
+    return response.statusCode() >= 200 && response.statusCode() < 300;
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static void closeQuietly(InputStream stream) {
+    try {
+      stream.close();
+    } catch (Exception e) {
+      log.debug("Failed to close response body", e);
+    }
+  }
+}
@@ -1,13 +1,16 @@
 package service.impl;
 
 import com.github.luben.zstd.Zstd;
+import entity.Change;
+import entity.ChangeFeed;
+import entity.ChangeSet;
 import entity.Chunk;
 import entity.Metadata;
 import entity.Response;
+import entity.SyncState;
 import io.github.zabuzard.fastcdc4j.internal.util.Validations;
 import java.io.*;
 import java.net.URLEncoder;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -17,10 +20,14 @@ import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import service.RemoteService;
 import service.SyncService;
 import utils.Const;
 import utils.EncryptionUtils;
+import utils.FrameCodec;
+import utils.HashList;
 import utils.HashUtils;
+import utils.ManifestUtils;
 
 /**
  * Implementation of {@link SyncService} for synchronizing files between local directories and
@@ -32,8 +39,12 @@ public class XSyncServiceImpl implements SyncService {
   /** Logger for this class. */
   private static final Log log = LogFactory.getLog(XSyncServiceImpl.class);
 
+  /** Length in bytes of the chunk hashes in framed streams. */
+  private static final int HASH_LENGTH =
+      HashUtils.hashToBytes(new byte[0], Const.hashAlgorithm).length;
+
   /** Remote service for communication with the server. */
-  private final XSyncRemoteService remoteService;
+  private final RemoteService remoteService;
 
   /** Expected size of each chunk in bytes (default: 8KB). */
   private int expectedChunkSize = Const.DEFAULT_EXPECTED_CHUNK_SIZE;
@@ -50,9 +61,34 @@ public class XSyncServiceImpl implements SyncService {
   /** Flag indicating whether encryption is enabled. */
   private Boolean isEncrypted = false;
 
+  /** Flag indicating whether sampled content fingerprints are used to detect changes. */
+  private Boolean isFingerprinted = false;
+
+  /** Flag indicating whether changed chunks are delta encoded against their predecessors. */
+  private Boolean isDeltaEncoded = false;
+
+  /** Local store of synchronized file states, opened lazily in the cache directory. */
+  private SyncStateStore stateStore;
+
+  /** Last known remote manifests, in the cache directory. */
+  private ManifestCache manifestCache;
+
+  /** Delta bases, in the cache directory. */
+  private ChunkCache chunkCache;
+
   /** Initializes the remote service. */
   public XSyncServiceImpl() {
-    remoteService = new XSyncRemoteService();
+    this(new XSyncRemoteService());
+  }
+
+  /**
+   * Creates a service communicating through the given remote service, such as an {@link
+   * XSyncAsyncRemoteService} shared by several accounts or configured for another server.
+   *
+   * @param remoteService the remote service
+   */
+  public XSyncServiceImpl(RemoteService remoteService) {
+    this.remoteService = Objects.requireNonNull(remoteService, "remoteService");
   }
 
   /**
@@ -81,6 +117,12 @@ public class XSyncServiceImpl implements SyncService {
     if (!cacheDir.exists()) {
       FileUtils.forceMkdir(cacheDir);
     }
+    if (stateStore != null) {
+      stateStore.close();
+      stateStore = null;
+    }
+    manifestCache = null;
+    chunkCache = null;
     return this;
   }
 
@@ -174,6 +216,35 @@ public class XSyncServiceImpl implements SyncService {
     return this;
   }
 
+  /**
+   * Enables or disables sampled content fingerprints, which catch modifications on file systems
+   * whose modification times are too coarse to tell writes apart.
+   *
+   * @param enabled true to enable fingerprints, false otherwise
+   * @return this instance for method chaining
+   */
+  @Override
+  public SyncService setFingerprinted(Boolean enabled) {
+    this.isFingerprinted = enabled;
+    return this;
+  }
+
+  /**
+   * Enables or disables delta encoding of uploaded chunks. A new chunk is then encoded against the
+   * chunk at the same position of the previous remote version, with the content of that chunk as a
+   * raw zstd dictionary, before compression, and the server reconstructs it before storing. Bases
+   * are read from a chunk cache in the cache directory, bounded by its total size. Encrypted chunks
+   * are never delta encoded, their ciphertexts share nothing.
+   *
+   * @param enabled true to enable delta encoding, false otherwise
+   * @return this instance for method chaining
+   */
+  @Override
+  public SyncService setDeltaEncoded(Boolean enabled) {
+    this.isDeltaEncoded = enabled;
+    return this;
+  }
+
   /**
    * Synchronizes a file with remote storage using incremental updates. Uploads local file if newer;
    * downloads remote file if newer.
@@ -186,32 +257,50 @@ public class XSyncServiceImpl implements SyncService {
     try {
       Objects.requireNonNull(file, "file");
       String filePath = validateFilePath(file);
+      if (isUnchangedLocally(file, filePath)) {
+        log.debug("File unchanged since last sync: " + filePath);
+        return true;
+      }
       log.info("Fetching metadata for " + filePath);
-      Metadata remoteMeta =
-          remoteService.fetchMetadata(URLEncoder.encode(filePath, StandardCharsets.UTF_8));
+      Metadata remoteMeta = fetchMetadata(filePath);
       if (remoteMeta != null && checkIfSyncNeeded(file, remoteMeta)) {
         log.info("File already synchronized: " + file.getName());
+        recordState(file, filePath, remoteMeta.getFileHash(), remoteVersion(remoteMeta));
         return true;
       }
       if (!file.exists()) {
-        return downloadFile(file, remoteMeta);
+        boolean downloaded = downloadFile(file, remoteMeta);
+        if (downloaded) {
+          recordState(file, filePath, remoteMeta.getFileHash(), remoteVersion(remoteMeta));
+        }
+        return downloaded;
       }
+      // Taken before chunking, an edit made during the upload must not be recorded as synced
+      SyncState snapshot = SyncStateStore.stat(file.toPath(), filePath, isFingerprinted);
       try (var is = FileUtils.openInputStream(file);
           var bis = new BufferedInputStream(is, Const.bufferSize)) {
         // Chunk the file for incremental synchronization
         Iterable<Chunk> chunks =
             new SimplifiedChunker()
                 .setExpectedChunkSize(expectedChunkSize)
-                .chunk(bis, file.length());
+                .chunk(bis, snapshot.getSize());
         Metadata localMeta = new Metadata();
         localMeta.setFilepath(filePath);
-        localMeta.setLastModifiedTime(file.lastModified());
-        localMeta.setFilesize(file.length());
+        localMeta.setLastModifiedTime(snapshot.getLastModifiedTime());
+        localMeta.setFilesize(snapshot.getSize());
         if (remoteMeta == null
             || localMeta.getLastModifiedTime() > remoteMeta.getLastModifiedTime()) {
-          return updateRemote(file, localMeta, chunks, remoteMeta);
+          boolean updated = updateRemote(file, localMeta, chunks, remoteMeta);
+          if (updated) {
+            recordSnapshot(file, snapshot, localMeta.getFileHash(), remoteVersion(localMeta));
+          }
+          return updated;
         } else {
-          return updateLocal(file, remoteMeta, chunks);
+          boolean updated = updateLocal(file, remoteMeta, chunks);
+          if (updated) {
+            recordState(file, filePath, remoteMeta.getFileHash(), remoteVersion(remoteMeta));
+          }
+          return updated;
         }
       }
     } catch (IOException e) {
@@ -232,11 +321,15 @@ public class XSyncServiceImpl implements SyncService {
     try {
       String filePath = validateFilePath(file);
       log.info("Deleting for " + filePath);
-      var rep = remoteService.delete(URLEncoder.encode(filePath, StandardCharsets.UTF_8));
+      var rep = remoteService.delete(remotePath(filePath));
       log.info(
           String.format(
               "Response from server: (statusCode: %d, message: \"%s\")",
               rep.getCode(), rep.getMessage()));
+      if (rep.isSuccess()) {
+        stateStore().remove(filePath);
+        manifestCache().remove(filePath);
+      }
       return rep.isSuccess();
     } catch (IOException e) {
       log.error("Delete file failed: " + file.getName(), e);
@@ -244,6 +337,176 @@ public class XSyncServiceImpl implements SyncService {
     }
   }
 
+  /**
+   * Scans the root directory in parallel and compares it with the recorded sync states.
+   *
+   * @return the files changed since they were last synchronized
+   * @throws IOException if the state store cannot be opened
+   */
+  @Override
+  public ChangeSet scan() throws IOException {
+    return new TreeScanner(rootDir.toPath())
+        .exclude(cacheDir.toPath())
+        .setFingerprinted(isFingerprinted)
+        .scan(stateStore().snapshot());
+  }
+
+  /**
+   * Scans the root directory and synchronizes every change: created and modified files are synced,
+   * files deleted locally are deleted remotely.
+   *
+   * @return true if every change was synchronized, false otherwise
+   */
+  @Override
+  public Boolean reconcile() {
+    ChangeSet changes;
+    try {
+      changes = scan();
+    } catch (IOException e) {
+      log.error("Failed to scan root directory", e);
+      return false;
+    }
+    log.info(
+        String.format(
+            "Reconciling %d created, %d modified and %d deleted files",
+            changes.getCreated().size(),
+            changes.getModified().size(),
+            changes.getDeleted().size()));
+    boolean success = true;
+    for (String path : changes.getCreated()) {
+      success &= sync(new File(rootDir, path));
+    }
+    for (String path : changes.getModified()) {
+      success &= sync(new File(rootDir, path));
+    }
+    for (String path : changes.getDeleted()) {
+      success &= delete(new File(rootDir, path));
+    }
+    return success;
+  }
+
+  /**
+   * Long-polls the server change log and applies the remote changes after the cached cursor. Files
+   * already at the changed version, such as those uploaded from this device, are skipped. The
+   * cursor only advances when every change was applied, so failed ones are retried.
+   *
+   * @return true if every change was applied, false otherwise
+   */
+  @Override
+  public Boolean pull() {
+    try {
+      File cursorFile = new File(cacheDir, Const.changeCursorFilename);
+      long cursor =
+          cursorFile.exists()
+              ? Long.parseLong(FileUtils.readFileToString(cursorFile, StandardCharsets.UTF_8).trim())
+              : 0L;
+      ChangeFeed feed = remoteService.pollChanges(cursor);
+      if (feed == null || feed.getChanges().isEmpty()) {
+        return true;
+      }
+      boolean success = true;
+      for (Change change : feed.getChanges()) {
+        File file = new File(rootDir, change.getFilepath());
+        String filePath = validateFilePath(file);
+        SyncState state = stateStore().get(filePath);
+        if (Change.DELETE.equals(change.getOperation())) {
+          success &= deleteLocal(file, filePath, state);
+        } else if (state == null
+            || !Objects.equals(
+                state.getRemoteVersion(),
+                remoteVersion(change.getVersion(), change.getLastModifiedTime()))) {
+          // Forget the recorded state so that sync asks the server
+          stateStore().remove(filePath);
+          success &= sync(file);
+        }
+      }
+      if (success) {
+        FileUtils.writeStringToFile(
+            cursorFile, String.valueOf(feed.getCursor()), StandardCharsets.UTF_8);
+      }
+      return success;
+    } catch (IOException | NumberFormatException e) {
+      log.error("Failed to pull remote changes", e);
+      return false;
+    }
+  }
+
+  /**
+   * Applies a remote deletion. The local file is moved to the cache directory as backup, unless it
+   * was modified since its last sync, in which case the local version wins and is kept.
+   *
+   * @param file the local file
+   * @param filePath the relative file path
+   * @param state the last synchronized state of the file, may be null
+   * @return true if the deletion was applied or skipped, false if it failed
+   */
+  private boolean deleteLocal(File file, String filePath, SyncState state) throws IOException {
+    if (!file.exists()) {
+      stateStore().remove(filePath);
+      return true;
+    }
+    if (state == null || !state.isSameFile(SyncStateStore.stat(file, filePath))) {
+      log.info("Keeping locally modified file deleted remotely: " + filePath);
+      return true;
+    }
+    File backup = new File(cacheDir, file.getName() + ".backup");
+    log.info("Deleting file removed remotely: " + filePath);
+    Files.move(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    stateStore().remove(filePath);
+    manifestCache().remove(filePath);
+    return true;
+  }
+
+  /**
+   * Encodes a file path for the remote service. Every call naming a file by path takes it URL
+   * encoded, the request encodes it once more and the server decodes both.
+   *
+   * @param filePath the relative file path
+   * @return the path to pass to the remote service
+   */
+  private static String remotePath(String filePath) {
+    return URLEncoder.encode(filePath, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Fetches the remote metadata of a file, as a diff against its cached manifest when the server
+   * still has the edits since that version, and caches the resulting manifest.
+   *
+   * @param filePath the relative file path
+   * @return the remote metadata with its full chunk hashes, or null if the file does not exist
+   */
+  private Metadata fetchMetadata(String filePath) {
+    String path = remotePath(filePath);
+    Metadata cached = manifestCache().get(filePath);
+    Metadata remoteMeta =
+        remoteService.fetchMetadata(path, cached == null ? null : cached.getVersion());
+    if (remoteMeta != null && remoteMeta.getEdits() != null) {
+      List<String> hashes = null;
+      if (cached != null && cached.getVersion().equals(remoteMeta.getBaseVersion())) {
+        try {
+          hashes = ManifestUtils.apply(cached.getChunkHashes(), remoteMeta.getEdits());
+        } catch (IllegalArgumentException e) {
+          // The cached manifest is stale or corrupt, an edit falls outside of it
+          hashes = null;
+        }
+      }
+      if (hashes == null || hashes.size() != remoteMeta.getChunkCount()) {
+        log.warn("Cannot apply manifest diff of " + filePath + ", fetching it in full");
+        remoteMeta = remoteService.fetchMetadata(path, null);
+      } else {
+        remoteMeta.setChunkHashes(hashes);
+        remoteMeta.setEdits(null);
+        remoteMeta.setBaseVersion(null);
+      }
+    }
+    if (remoteMeta == null) {
+      manifestCache().remove(filePath);
+    } else {
+      manifestCache().put(remoteMeta);
+    }
+    return remoteMeta;
+  }
+
   /**
    * Validates that the file path is within the root directory.
    *
@@ -261,6 +524,121 @@ public class XSyncServiceImpl implements SyncService {
     return rootDir.toPath().relativize(file.toPath()).normalize().toString();
   }
 
+  /**
+   * Opens the state store in the cache directory if it is not open yet.
+   *
+   * @return the state store
+   * @throws IOException if the store cannot be opened
+   */
+  private SyncStateStore stateStore() throws IOException {
+    if (stateStore == null) {
+      stateStore = new SyncStateStore(cacheDir);
+    }
+    return stateStore;
+  }
+
+  /**
+   * Opens the manifest cache in the cache directory if it is not open yet.
+   *
+   * @return the manifest cache
+   */
+  private ManifestCache manifestCache() {
+    if (manifestCache == null) {
+      manifestCache = new ManifestCache(new File(cacheDir, Const.manifestDirname));
+    }
+    return manifestCache;
+  }
+
+  /**
+   * Opens the chunk cache in the cache directory if it is not open yet.
+   *
+   * @return the chunk cache
+   */
+  private ChunkCache chunkCache() {
+    if (chunkCache == null) {
+      chunkCache = new ChunkCache(new File(cacheDir, Const.chunkDirname), Const.chunkCacheMaxBytes);
+    }
+    return chunkCache;
+  }
+
+  /**
+   * Checks against the local state store whether the file is unchanged since its last successful
+   * synchronization, in which case no request to the server is needed.
+   *
+   * @param file the local file
+   * @param filePath the relative file path
+   * @return true if the file is known to be in sync
+   * @throws IOException if the store or the file attributes cannot be read
+   */
+  private boolean isUnchangedLocally(File file, String filePath) throws IOException {
+    SyncState state = stateStore().get(filePath);
+    if (state == null || !file.exists()) {
+      return false;
+    }
+    boolean fingerprinted = isFingerprinted && state.getFingerprint() != null;
+    return state.isSameFile(SyncStateStore.stat(file.toPath(), filePath, fingerprinted));
+  }
+
+  /**
+   * Records the state of a file taken before it was uploaded, unless the file changed since. A
+   * changed file keeps its previous state, so that the next sync or scan uploads the edit.
+   *
+   * @param file the local file
+   * @param snapshot the state of the file before it was read
+   * @param fileHash the hash of the uploaded content
+   * @param remoteVersion the version of the file on the server
+   */
+  private void recordSnapshot(File file, SyncState snapshot, String fileHash, Long remoteVersion) {
+    try {
+      if (!snapshot.isSameFile(SyncStateStore.stat(file.toPath(), snapshot.getFilepath(), false))) {
+        log.info("File changed during synchronization: " + snapshot.getFilepath());
+        return;
+      }
+      snapshot.setFileHash(fileHash);
+      snapshot.setRemoteVersion(remoteVersion);
+      stateStore().put(snapshot);
+    } catch (IOException e) {
+      log.warn("Failed to record sync state for file: " + snapshot.getFilepath(), e);
+    }
+  }
+
+  /**
+   * Records the state of a file after a successful synchronization. A failure here only costs a
+   * remote round trip on the next sync, so it is logged rather than propagated.
+   *
+   * @param file the local file
+   * @param filePath the relative file path
+   * @param fileHash the hash of the synchronized content
+   * @param remoteVersion the version of the file on the server
+   */
+  private void recordState(File file, String filePath, String fileHash, Long remoteVersion) {
+    try {
+      SyncState state = SyncStateStore.stat(file.toPath(), filePath, isFingerprinted);
+      state.setFileHash(fileHash);
+      state.setRemoteVersion(remoteVersion);
+      stateStore().put(state);
+    } catch (IOException e) {
+      log.warn("Failed to record sync state for file: " + filePath, e);
+    }
+  }
+
+  /**
+   * Returns the version recorded for the file on the server, see {@link #remoteVersion(Long,
+   * Long)}.
+   */
+  private static Long remoteVersion(Metadata meta) {
+    return remoteVersion(meta.getVersion(), meta.getLastModifiedTime());
+  }
+
+  /**
+   * Returns the version recorded for a file on the server: its manifest version, or its last
+   * modified time for servers not reporting versions. Changes pulled from the server are compared
+   * the same way, so both sides of the comparison agree.
+   */
+  private static Long remoteVersion(Long version, Long lastModifiedTime) {
+    return version != null ? version : lastModifiedTime;
+  }
+
   /**
    * Checks if synchronization is needed based on last modified time.
    *
@@ -289,7 +667,15 @@ public class XSyncServiceImpl implements SyncService {
       return false;
     }
     log.info("Downloading file: " + file.getName());
-    Iterable<Chunk> chunks = () -> remoteService.fetchChunks(remoteMeta.getChunkHashes());
+    // The server resolves the chunks from its manifest, the version guards against a newer one
+    Iterable<Chunk> chunks =
+        remoteMeta.getVersion() == null
+            ? () -> remoteService.fetchChunks(remoteMeta.getChunkHashes())
+            : () ->
+                remoteService.fetchFileChunks(
+                    remotePath(remoteMeta.getFilepath()),
+                    remoteMeta.getVersion(),
+                    remoteMeta.getChunkCount());
     try {
       File backup = new File(cacheDir, file.getName() + ".backup");
       if (file.exists()) {
@@ -339,12 +725,15 @@ public class XSyncServiceImpl implements SyncService {
     Objects.requireNonNull(file, "file");
     Objects.requireNonNull(localMeta, "localMeta");
     Objects.requireNonNull(chunks, "chunks");
-    // Initialize existing chunks from remote metadata, or use an empty set if none exist
-    Set<String> existingChunks =
-        (remoteMeta != null) ? new HashSet<>(remoteMeta.getChunkHashes()) : Collections.emptySet();
+    List<String> remoteHashes =
+        (remoteMeta != null) ? remoteMeta.getChunkHashes() : Collections.emptyList();
+    // Existing chunks from remote metadata, a fetched manifest is a packed list with its own index
+    Collection<String> existingChunks =
+        remoteHashes instanceof HashList ? remoteHashes : new HashSet<>(remoteHashes);
     log.info("Updating remote file: " + file.getName());
-    int uploadedCount = 0;
-    int uploadedSize = 0;
+    long uploadedCount = 0;
+    long uploadedSize = 0;
+    int deltaCount = 0;
     File tmpFile = new File(cacheDir, file.getName() + ".tmp");
     List<String> chunkHashes = new ArrayList<>();
     try (DeferredFileOutputStream dfo =
@@ -354,38 +743,63 @@ public class XSyncServiceImpl implements SyncService {
             .get()) {
       HashUtils.Hasher chunksHasher = new HashUtils.Hasher("SHA-256");
       HashUtils.Hasher fileHasher = new HashUtils.Hasher("SHA-256");
-      ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+      // Chunk frames are buffered, the manifest leading them is only known after the last chunk
+      FrameCodec.Writer frames = new FrameCodec.Writer(dfo, HASH_LENGTH);
       for (Chunk chunk : chunks) {
         byte[] originalData = chunk.getData();
         fileHasher.update(originalData);
         byte[] processedData = maybeEncryptAndCompress(originalData);
         String hash = HashUtils.hash(processedData, Const.hashAlgorithm);
+        int position = chunkHashes.size();
         chunkHashes.add(hash);
         if (!existingChunks.contains(hash)) {
-          // Write chunk length and data only if the chunk doesn't exist remotely
+          // Write the chunk frame only if the chunk doesn't exist remotely
           chunksHasher.update(processedData);
-          lengthBuffer.clear();
-          lengthBuffer.putInt(processedData.length);
-          dfo.write(lengthBuffer.array());
-          dfo.write(processedData);
+          byte[] payload = processedData;
+          String base = null;
+          if (isDeltaEncoded && !isEncrypted) {
+            chunkCache().put(hash, processedData);
+            String candidate = position < remoteHashes.size() ? remoteHashes.get(position) : null;
+            byte[] delta = maybeDeltaEncode(originalData, processedData.length, candidate);
+            if (delta != null) {
+              base = candidate;
+              payload = delta;
+              deltaCount++;
+            }
+          }
+          // A delta between compressed chunks is taken between their contents
+          Integer level = base != null && isCompressed ? Const.compressionLevel : null;
+          frames.writeChunk(payload, base, level);
           uploadedCount++;
-          uploadedSize += processedData.length;
-          log.debug(String.format("Wrote chunk [%s], size=%d bytes", hash, processedData.length));
+          uploadedSize += payload.length;
+          log.debug(String.format("Wrote chunk [%s], size=%d bytes", hash, payload.length));
         } else {
           log.debug(String.format("Skipped existing chunk [%s]", hash));
         }
       }
+      frames.flush();
       localMeta.setFileHash(fileHasher.getHash());
       localMeta.setChunkHashes(chunkHashes);
       localMeta.setChunkCount(chunkHashes.size());
       dfo.close();
-      try (InputStream is = dfo.toInputStream()) {
-        // Upload the input stream to the remote server
-        Response rep = remoteService.upload(is, localMeta, chunksHasher.getHash());
-        if (!rep.isSuccess()) {
-          log.error("Failed to upload file " + file.getName() + ": " + rep.getMessage());
-          return false;
+      Response rep;
+      if (remoteMeta != null && remoteMeta.getVersion() != null) {
+        // Send the manifest as edits against the remote version
+        rep = upload(diff(localMeta, remoteMeta), dfo, uploadedCount, chunksHasher.getHash());
+        if (rep.getCode() != null && rep.getCode() == 409) {
+          log.info("Remote manifest changed, uploading full manifest of " + file.getName());
+          rep = upload(localMeta, dfo, uploadedCount, chunksHasher.getHash());
         }
+      } else {
+        rep = upload(localMeta, dfo, uploadedCount, chunksHasher.getHash());
+      }
+      if (!rep.isSuccess()) {
+        log.error("Failed to upload file " + file.getName() + ": " + rep.getMessage());
+        return false;
+      }
+      if (rep.getBody() instanceof Number version) {
+        localMeta.setVersion(version.longValue());
+        manifestCache().put(localMeta);
       }
     } catch (IOException e) {
       log.error("Failed to update remote file: " + file.getName(), e);
@@ -393,11 +807,61 @@ public class XSyncServiceImpl implements SyncService {
     }
     log.info(
         String.format(
-            "Uploaded %d chunks (%d bytes) for file %s",
-            uploadedCount, uploadedSize, file.getName()));
+            "Uploaded %d chunks (%d bytes, %d delta encoded) for file %s",
+            uploadedCount, uploadedSize, deltaCount, file.getName()));
     return true;
   }
 
+  /**
+   * Uploads a framed stream made of the manifest, the buffered chunk frames and the trailer.
+   *
+   * @param manifest the manifest leading the stream
+   * @param chunkFrames the buffered chunk frames
+   * @param chunkCount the number of chunk frames
+   * @param hash the hash of the chunk data
+   * @return the server response
+   * @throws IOException if the buffered frames cannot be read
+   */
+  private Response upload(
+      Metadata manifest, DeferredFileOutputStream chunkFrames, long chunkCount, String hash)
+      throws IOException {
+    ByteArrayOutputStream head = new ByteArrayOutputStream();
+    FrameCodec.Writer headWriter = new FrameCodec.Writer(head, HASH_LENGTH);
+    headWriter.writeHeader();
+    headWriter.writeManifest(manifest);
+    ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    new FrameCodec.Writer(tail, HASH_LENGTH).writeEnd(chunkCount, hash);
+    try (InputStream is =
+        new SequenceInputStream(
+            Collections.enumeration(
+                List.of(
+                    new ByteArrayInputStream(head.toByteArray()),
+                    chunkFrames.toInputStream(),
+                    new ByteArrayInputStream(tail.toByteArray()))))) {
+      return remoteService.upload(is);
+    }
+  }
+
+  /**
+   * Builds the manifest of the local file as edits against the remote manifest.
+   *
+   * @param localMeta the local metadata with its chunk hashes
+   * @param remoteMeta the remote metadata with its version and chunk hashes
+   * @return the manifest carrying the edits instead of chunk hashes
+   */
+  private static Metadata diff(Metadata localMeta, Metadata remoteMeta) {
+    Metadata manifest = new Metadata();
+    manifest.setFilepath(localMeta.getFilepath());
+    manifest.setFilesize(localMeta.getFilesize());
+    manifest.setFileHash(localMeta.getFileHash());
+    manifest.setLastModifiedTime(localMeta.getLastModifiedTime());
+    manifest.setChunkCount(localMeta.getChunkCount());
+    manifest.setBaseVersion(remoteMeta.getVersion());
+    manifest.setEdits(
+        ManifestUtils.diff(remoteMeta.getChunkHashes(), localMeta.getChunkHashes()));
+    return manifest;
+  }
+
   /**
    * Updates the local file with remote chunks.
    *
@@ -461,6 +925,9 @@ public class XSyncServiceImpl implements SyncService {
         }
         byte[] processedData = FileUtils.readFileToByteArray(chunkFile);
         byte[] data = maybeDecryptAndDecompress(processedData);
+        if (isDeltaEncoded && !isEncrypted) {
+          chunkCache().put(hash, processedData);
+        }
         hasher.update(data);
         FileUtils.writeByteArrayToFile(file, data, true);
       }
@@ -487,6 +954,33 @@ public class XSyncServiceImpl implements SyncService {
     return true;
   }
 
+  /**
+   * Encodes a chunk against the content of its base chunk if the base is cached locally and the
+   * delta is sufficiently smaller than the chunk as it would be sent otherwise.
+   *
+   * @param data the original chunk data, before compression
+   * @param size the size of the processed chunk data
+   * @param baseHash the hash of the chunk at the same position in the remote version, may be null
+   * @return the delta, or null if the chunk should be sent in full
+   */
+  private byte[] maybeDeltaEncode(byte[] data, int size, String baseHash) {
+    if (baseHash == null) {
+      return null;
+    }
+    byte[] base = chunkCache().get(baseHash);
+    if (base == null) {
+      return null;
+    }
+    try {
+      byte[] delta =
+          Zstd.compressUsingDict(data, maybeDecryptAndDecompress(base), Const.compressionLevel);
+      return delta.length < size * Const.deltaMaxRatio ? delta : null;
+    } catch (RuntimeException e) {
+      log.warn("Failed to delta encode against chunk: " + baseHash, e);
+      return null;
+    }
+  }
+
   /**
    * Processes a chunk for upload by applying encryption and compression if enabled.
    *
@@ -4,10 +4,20 @@ public class Const {
 
   // Unirest
   public static final String defaultUrl = "http://localhost:8080";
+  public static final int connectTimeout = 5 * 1000;
+  public static final int changePollTimeout = 60 * 1000;
 
   // File
   public static final String credentialFilename = "credential";
   public static final String secretKeyFilename = "secret-key";
+  public static final String stateLogFilename = "sync-state.log";
+  public static final String changeCursorFilename = "change-cursor";
+  public static final String manifestDirname = "manifests";
+  public static final String chunkDirname = "chunks";
+
+  // Sync state
+  public static final long stateCompactionThreshold = 4096;
+  public static final int fingerprintSampleSize = 4 * 1024;
 
   // Hash
   public static final String hashAlgorithm = "SHA-256";
@@ -27,6 +37,10 @@ public class Const {
   public static final String compressionType = "zstd";
   public static final Integer compressionLevel = 7;
 
+  // Delta
+  public static final double deltaMaxRatio = 0.5;
+  public static final long chunkCacheMaxBytes = 256L * 1024 * 1024;
+
   // Encrypt
   public static final String encryptionType = "PBEWithMD5AndDES";
 }
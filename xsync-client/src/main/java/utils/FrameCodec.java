@@ -0,0 +1,589 @@
+package utils;
+
+import entity.ManifestEdit;
+import entity.Metadata;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Binary framing of manifests and chunk batches, shared with the server.
+ *
+ * <pre>
+ * stream   := header frame* end
+ * header   := magic "XSYN" (4 bytes), version (u8), hash length (u8)
+ * frame    := type (u8), payload length (varint), payload
+ * MANIFEST := flags (u8), filepath (string), [filesize (varint)], [last modified time (varint)],
+ *             [file hash (bytes)], [version (varint)], chunk count (varint),
+ *             chunk hashes (count * hash length) | base version (varint), edits
+ * edits    := edit count (varint), (start (varint), end (varint), hash count (varint),
+ *             hashes (hash count * hash length))*
+ * CHUNK    := flags (u8), [base hash (hash length)], [compression level (u8)], data
+ * END      := chunk frame count (varint), [batch hash (bytes)]
+ * </pre>
+ *
+ * Varints are unsigned LEB128, strings and byte strings are prefixed with their varint length and
+ * chunk hashes are raw bytes of the length announced in the header. Every frame carries its payload
+ * length, so readers skip frame types they do not know. The trailer repeats the number of chunk
+ * frames, so a truncated stream is told apart from a complete one. A manifest flagged as diff
+ * carries edits against its base version instead of the full list of chunk hashes.
+ */
+public class FrameCodec {
+
+  public static final String MEDIA_TYPE = "application/x-xsync-frames";
+
+  public static final int MAGIC = 0x5853594E; // "XSYN"
+  public static final int VERSION = 1;
+
+  public static final int END = 0;
+  public static final int MANIFEST = 1;
+  public static final int CHUNK = 2;
+
+  /** Chunk flag: the data is a delta against the base chunk following the flags. */
+  public static final int FLAG_DELTA = 1;
+
+  /**
+   * Chunk flag, along with {@link #FLAG_DELTA}: the chunk and its base are stored zstd compressed,
+   * the delta is taken between their contents and the chunk is compressed again at the level
+   * following the base hash.
+   */
+  public static final int FLAG_COMPRESSED = 1 << 1;
+
+  private static final int MANIFEST_FILESIZE = 1;
+  private static final int MANIFEST_LAST_MODIFIED_TIME = 1 << 1;
+  private static final int MANIFEST_FILE_HASH = 1 << 2;
+  private static final int MANIFEST_VERSION = 1 << 3;
+  private static final int MANIFEST_DIFF = 1 << 4;
+
+  /** Upper bound of a trailer or unknown frame payload. */
+  public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+  /** Upper bound of a manifest payload, tens of millions of chunk hashes. */
+  public static final int MAX_MANIFEST_FRAME_SIZE = 1 << 30;
+
+  /** Upper bound of a chunk frame payload: flags, base hash, compression level and data. */
+  public static final int MAX_CHUNK_FRAME_SIZE = 64 * 1024 * 1024 + 1 + 255 + 1;
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  /** Writes a framed stream, the caller writes the header once before any frame. */
+  public static class Writer implements Flushable {
+    private final DataOutputStream out;
+    private final int hashLength;
+    private long chunkCount;
+
+    /**
+     * @param out the stream to write to
+     * @param hashLength the length in bytes of the chunk hashes
+     */
+    public Writer(OutputStream out, int hashLength) {
+      if (hashLength <= 0 || hashLength > 255) {
+        throw new IllegalArgumentException("Invalid hash length: " + hashLength);
+      }
+      this.out = new DataOutputStream(out);
+      this.hashLength = hashLength;
+    }
+
+    public void writeHeader() throws IOException {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeByte(hashLength);
+    }
+
+    public void writeManifest(Metadata metadata) throws IOException {
+      List<String> hashes =
+          metadata.getChunkHashes() == null ? List.of() : metadata.getChunkHashes();
+      writeManifest(metadata, hashes.size(), hashes.iterator());
+    }
+
+    /**
+     * Writes a manifest frame whose chunk hashes are passed separately, so that they can be read
+     * from their source while writing rather than being held in memory.
+     *
+     * @param metadata the manifest, its chunk hashes are ignored
+     * @param count the number of chunk hashes, ignored for a diff
+     * @param hashes the chunk hashes in file order, ignored for a diff
+     */
+    public void writeManifest(Metadata metadata, long count, Iterator<String> hashes)
+        throws IOException {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      int flags =
+          (metadata.getFilesize() != null ? MANIFEST_FILESIZE : 0)
+              | (metadata.getLastModifiedTime() != null ? MANIFEST_LAST_MODIFIED_TIME : 0)
+              | (metadata.getFileHash() != null ? MANIFEST_FILE_HASH : 0)
+              | (metadata.getVersion() != null ? MANIFEST_VERSION : 0)
+              | (metadata.getEdits() != null ? MANIFEST_DIFF : 0);
+      buffer.write(flags);
+      writeBytes(buffer, metadata.getFilepath().getBytes(StandardCharsets.UTF_8));
+      if (metadata.getFilesize() != null) {
+        writeVarLong(buffer, metadata.getFilesize());
+      }
+      if (metadata.getLastModifiedTime() != null) {
+        writeVarLong(buffer, metadata.getLastModifiedTime());
+      }
+      if (metadata.getFileHash() != null) {
+        writeBytes(buffer, HEX.parseHex(metadata.getFileHash()));
+      }
+      if (metadata.getVersion() != null) {
+        writeVarLong(buffer, metadata.getVersion());
+      }
+      if (metadata.getEdits() != null) {
+        writeVarLong(buffer, metadata.getChunkCount());
+        writeVarLong(buffer, metadata.getBaseVersion());
+        writeEdits(buffer, metadata.getEdits(), hashLength);
+        writeFrame(MANIFEST, buffer.toByteArray(), null);
+        return;
+      }
+      writeVarLong(buffer, count);
+      out.writeByte(MANIFEST);
+      writeVarLong(out, buffer.size() + count * hashLength);
+      buffer.writeTo(out);
+      for (long i = 0; i < count; i++) {
+        if (!hashes.hasNext()) {
+          throw new IllegalArgumentException("Expected " + count + " chunk hashes, got " + i);
+        }
+        out.write(hashBytes(hashes.next(), hashLength));
+      }
+    }
+
+    /**
+     * Writes a chunk frame.
+     *
+     * @param data the chunk data, or its delta if base is given
+     * @param base hash of the base chunk of a delta, null for a plain chunk
+     */
+    public void writeChunk(byte[] data, String base) throws IOException {
+      writeChunk(data, base, null);
+    }
+
+    /**
+     * Writes a chunk frame.
+     *
+     * @param data the chunk data, or its delta if base is given
+     * @param base hash of the base chunk of a delta, null for a plain chunk
+     * @param level zstd level of a delta between the contents of compressed chunks, null if the
+     *     delta is taken between the stored chunks themselves
+     */
+    public void writeChunk(byte[] data, String base, Integer level) throws IOException {
+      if (level != null && base == null) {
+        throw new IllegalArgumentException("Compression level of a plain chunk");
+      }
+      byte[] head = new byte[1 + (base != null ? hashLength : 0) + (level != null ? 1 : 0)];
+      if (base != null) {
+        head[0] = FLAG_DELTA;
+        System.arraycopy(hashBytes(base, hashLength), 0, head, 1, hashLength);
+      }
+      if (level != null) {
+        head[0] |= FLAG_COMPRESSED;
+        head[head.length - 1] = level.byteValue();
+      }
+      writeFrame(CHUNK, head, data);
+      chunkCount++;
+    }
+
+    /**
+     * Writes the trailer closing the stream.
+     *
+     * @param hash hash of the chunk data in the stream, null if not computed
+     */
+    public void writeEnd(String hash) throws IOException {
+      writeEnd(chunkCount, hash);
+    }
+
+    /**
+     * Writes the trailer of a stream whose chunk frames were written separately.
+     *
+     * @param chunkCount the number of chunk frames in the stream
+     * @param hash hash of the chunk data in the stream, null if not computed
+     */
+    public void writeEnd(long chunkCount, String hash) throws IOException {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      writeVarLong(buffer, chunkCount);
+      if (hash != null) {
+        writeBytes(buffer, HEX.parseHex(hash));
+      }
+      writeFrame(END, buffer.toByteArray(), null);
+      out.flush();
+    }
+
+    /** Number of chunk frames written so far. */
+    public long getChunkCount() {
+      return chunkCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    private void writeFrame(int type, byte[] head, byte[] data) throws IOException {
+      out.writeByte(type);
+      writeVarLong(out, (long) head.length + (data != null ? data.length : 0));
+      out.write(head);
+      if (data != null) {
+        out.write(data);
+      }
+    }
+  }
+
+  /**
+   * Reads a framed stream one frame at a time. Malformed content is reported with an {@link
+   * IllegalArgumentException}, a stream ending before its trailer with an {@link EOFException}.
+   */
+  public static class Reader {
+    private final DataInputStream in;
+    private final int hashLength;
+    private long chunkCount;
+    private boolean ended;
+
+    private Metadata manifest;
+    private byte[] data;
+    private String base;
+    private Integer level;
+    private String hash;
+
+    /**
+     * Reads and validates the header of the stream.
+     *
+     * @param in the stream to read from
+     */
+    public Reader(InputStream in) throws IOException {
+      this.in = new DataInputStream(in);
+      if (this.in.readInt() != MAGIC) {
+        throw new IllegalArgumentException("Not a framed stream");
+      }
+      int version = this.in.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported frame version: " + version);
+      }
+      hashLength = this.in.readUnsignedByte();
+      if (hashLength == 0) {
+        throw new IllegalArgumentException("Invalid hash length: 0");
+      }
+    }
+
+    /**
+     * Reads the next frame, skipping unknown frame types.
+     *
+     * @return the frame type, {@link #END} once the trailer is read
+     */
+    public int next() throws IOException {
+      if (ended) {
+        throw new IllegalStateException("Stream already ended");
+      }
+      while (true) {
+        int type = in.readUnsignedByte();
+        long length = readVarLong(in);
+        int limit =
+            switch (type) {
+              case CHUNK -> MAX_CHUNK_FRAME_SIZE;
+              case MANIFEST -> MAX_MANIFEST_FRAME_SIZE;
+              default -> MAX_FRAME_SIZE;
+            };
+        if (length > limit) {
+          throw new IllegalArgumentException("Frame too large: " + length);
+        }
+        switch (type) {
+          case MANIFEST -> {
+            readManifest((int) length);
+            return MANIFEST;
+          }
+          case CHUNK -> {
+            readChunk((int) length);
+            return CHUNK;
+          }
+          case END -> {
+            readEnd((int) length);
+            return END;
+          }
+          default -> in.skipNBytes(length);
+        }
+      }
+    }
+
+    /** Metadata of the last manifest frame. */
+    public Metadata getManifest() {
+      return manifest;
+    }
+
+    /** Data of the last chunk frame, a delta if {@link #getBase()} is not null. */
+    public byte[] getData() {
+      return data;
+    }
+
+    /** Base chunk hash of the last chunk frame, null unless it is delta encoded. */
+    public String getBase() {
+      return base;
+    }
+
+    /**
+     * Compression level of the last chunk frame if its delta is taken between the contents of
+     * compressed chunks, null otherwise.
+     */
+    public Integer getLevel() {
+      return level;
+    }
+
+    /** Hash announced by the trailer, null if the writer did not compute one. */
+    public String getHash() {
+      return hash;
+    }
+
+    /** Number of chunk frames read so far. */
+    public long getChunkCount() {
+      return chunkCount;
+    }
+
+    /** Parses the manifest straight from the stream, only the chunk hashes are kept in memory. */
+    private void readManifest(int length) throws IOException {
+      FrameInputStream bounded = new FrameInputStream(in, length);
+      DataInputStream frame = new DataInputStream(bounded);
+      int flags = frame.readUnsignedByte();
+      Metadata metadata = new Metadata();
+      metadata.setFilepath(new String(readBytes(frame, length), StandardCharsets.UTF_8));
+      if ((flags & MANIFEST_FILESIZE) != 0) {
+        metadata.setFilesize(readVarLong(frame));
+      }
+      if ((flags & MANIFEST_LAST_MODIFIED_TIME) != 0) {
+        metadata.setLastModifiedTime(readVarLong(frame));
+      }
+      if ((flags & MANIFEST_FILE_HASH) != 0) {
+        metadata.setFileHash(HEX.formatHex(readBytes(frame, length)));
+      }
+      if ((flags & MANIFEST_VERSION) != 0) {
+        metadata.setVersion(readVarLong(frame));
+      }
+      long count = readVarLong(frame);
+      if (count > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Invalid manifest chunk count: " + count);
+      }
+      metadata.setChunkCount((int) count);
+      if ((flags & MANIFEST_DIFF) != 0) {
+        metadata.setBaseVersion(readVarLong(frame));
+        metadata.setEdits(readEdits(frame, hashLength, bounded.remaining));
+      } else {
+        metadata.setChunkHashes(readHashes(frame, count, hashLength, bounded.remaining));
+      }
+      // Fields added by later versions follow the known ones
+      frame.skipNBytes(bounded.remaining);
+      manifest = metadata;
+    }
+
+    private void readChunk(int length) throws IOException {
+      if (length < 1) {
+        throw new IllegalArgumentException("Empty chunk frame");
+      }
+      int flags = in.readUnsignedByte();
+      length--;
+      base = null;
+      level = null;
+      if ((flags & FLAG_DELTA) != 0) {
+        if (length < hashLength) {
+          throw new IllegalArgumentException("Truncated delta chunk frame");
+        }
+        byte[] hashBytes = new byte[hashLength];
+        in.readFully(hashBytes);
+        base = HEX.formatHex(hashBytes);
+        length -= hashLength;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+          if (length < 1) {
+            throw new IllegalArgumentException("Truncated delta chunk frame");
+          }
+          level = (int) in.readByte();
+          length--;
+        }
+      }
+      data = new byte[length];
+      in.readFully(data);
+      chunkCount++;
+    }
+
+    private void readEnd(int length) throws IOException {
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+      long count = readVarLong(frame);
+      if (count != chunkCount) {
+        throw new IllegalArgumentException(
+            "Trailer announces " + count + " chunks, stream had " + chunkCount);
+      }
+      hash = frame.available() > 0 ? HEX.formatHex(readBytes(frame, length)) : null;
+      ended = true;
+    }
+  }
+
+  /** Payload of one frame, reading past its end is reported as a malformed frame. */
+  private static class FrameInputStream extends FilterInputStream {
+    private long remaining;
+
+    private FrameInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        throw new IllegalArgumentException("Field exceeds its frame");
+      }
+      int b = super.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (remaining <= 0) {
+        throw new IllegalArgumentException("Field exceeds its frame");
+      }
+      int n = super.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+  }
+
+  /**
+   * Reads a stream holding a single manifest, as returned by the metadata endpoint.
+   *
+   * @param in the framed stream
+   * @return the metadata of the manifest
+   */
+  public static Metadata readManifest(InputStream in) throws IOException {
+    Reader reader = new Reader(in);
+    if (reader.next() != MANIFEST) {
+      throw new IllegalArgumentException("Manifest frame expected");
+    }
+    // The server streams large manifests and only ends them once they were sent consistently
+    if (reader.next() != END) {
+      throw new IllegalArgumentException("Trailer expected");
+    }
+    return reader.getManifest();
+  }
+
+  /**
+   * Checks whether a stream starts with the frame header, without consuming it.
+   *
+   * @param in a stream supporting mark and reset
+   * @return true if the stream is framed
+   */
+  public static boolean isFramed(InputStream in) throws IOException {
+    in.mark(Integer.BYTES);
+    try {
+      byte[] magic = in.readNBytes(Integer.BYTES);
+      return magic.length == Integer.BYTES
+          && new DataInputStream(new ByteArrayInputStream(magic)).readInt() == MAGIC;
+    } finally {
+      in.reset();
+    }
+  }
+
+  static void writeVarLong(OutputStream out, long value) throws IOException {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative varint: " + value);
+    }
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  private static void writeEdits(OutputStream out, List<ManifestEdit> edits, int hashLength)
+      throws IOException {
+    writeVarLong(out, edits.size());
+    for (ManifestEdit edit : edits) {
+      writeVarLong(out, edit.getStart());
+      writeVarLong(out, edit.getEnd());
+      writeVarLong(out, edit.getHashes().size());
+      for (String hash : edit.getHashes()) {
+        out.write(hashBytes(hash, hashLength));
+      }
+    }
+  }
+
+  private static List<ManifestEdit> readEdits(DataInputStream in, int hashLength, long limit)
+      throws IOException {
+    long count = readVarLong(in);
+    if (count > limit) {
+      throw new IllegalArgumentException("Invalid edit count: " + count);
+    }
+    List<ManifestEdit> edits = new ArrayList<>((int) count);
+    for (long i = 0; i < count; i++) {
+      long start = readVarLong(in);
+      long end = readVarLong(in);
+      if (start > end || end > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Invalid edit range: " + start + ".." + end);
+      }
+      List<String> hashes = readHashes(in, readVarLong(in), hashLength, limit);
+      edits.add(new ManifestEdit((int) start, (int) end, hashes));
+    }
+    return edits;
+  }
+
+  /**
+   * Reads raw chunk hashes into a packed list.
+   *
+   * @param limit the bytes left in the enclosing payload, bounding the count before allocating
+   */
+  private static List<String> readHashes(DataInputStream in, long count, int hashLength, long limit)
+      throws IOException {
+    if (count * hashLength > limit) {
+      throw new IllegalArgumentException("Invalid hash count: " + count);
+    }
+    byte[] hashes = new byte[(int) (count * hashLength)];
+    in.readFully(hashes);
+    return new HashList(hashes, hashLength);
+  }
+
+  private static byte[] hashBytes(String hash, int hashLength) {
+    byte[] bytes = HEX.parseHex(hash);
+    if (bytes.length != hashLength) {
+      throw new IllegalArgumentException("Invalid chunk hash: " + hash);
+    }
+    return bytes;
+  }
+
+  private static void writeBytes(OutputStream out, byte[] bytes) throws IOException {
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput in, int limit) throws IOException {
+    long length = readVarLong(in);
+    if (length > limit) {
+      throw new IllegalArgumentException("Invalid field length: " + length);
+    }
+    byte[] bytes = new byte[(int) length];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,125 @@
+package utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of fixed length hashes packed into one byte array, for manifests of millions of
+ * chunks. The hex strings are only created on access, and {@link #indexOf(Object)} and {@link
+ * #contains(Object)} use an open addressing index built on first use, so looking up every chunk of
+ * a batch stays linear in the size of the manifest.
+ */
+public class HashList extends AbstractList<String> implements RandomAccess {
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final byte[] hashes;
+  private final int hashLength;
+  private final int size;
+
+  /** Positions plus one by hash bucket, 0 for an empty slot. */
+  private volatile int[] index;
+
+  /**
+   * @param hashes the concatenated raw hashes
+   * @param hashLength the length in bytes of one hash
+   */
+  public HashList(byte[] hashes, int hashLength) {
+    if (hashLength <= 0 || hashes.length % hashLength != 0) {
+      throw new IllegalArgumentException("Invalid hash length: " + hashLength);
+    }
+    this.hashes = hashes;
+    this.hashLength = hashLength;
+    this.size = hashes.length / hashLength;
+  }
+
+  @Override
+  public String get(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException(i);
+    }
+    return HEX.formatHex(hashes, i * hashLength, (i + 1) * hashLength);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (!(o instanceof String hash) || hash.length() != hashLength * 2) {
+      return -1;
+    }
+    byte[] key;
+    try {
+      key = HEX.parseHex(hash);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+    int[] table = index();
+    int mask = table.length - 1;
+    for (int slot = hash(key, 0) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int i = table[slot] - 1;
+      if (Arrays.equals(hashes, i * hashLength, (i + 1) * hashLength, key, 0, hashLength)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the raw bytes of all hashes, not to be modified. */
+  public byte[] toBytes() {
+    return hashes;
+  }
+
+  public int getHashLength() {
+    return hashLength;
+  }
+
+  private int[] index() {
+    int[] table = index;
+    if (table == null) {
+      // At most half full, the first occurrence of a duplicated hash wins
+      table = new int[Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1];
+      int mask = table.length - 1;
+      for (int i = 0; i < size; i++) {
+        int slot = hash(hashes, i * hashLength) & mask;
+        while (table[slot] != 0) {
+          int j = table[slot] - 1;
+          if (Arrays.equals(
+              hashes,
+              i * hashLength,
+              (i + 1) * hashLength,
+              hashes,
+              j * hashLength,
+              (j + 1) * hashLength)) {
+            break;
+          }
+          slot = (slot + 1) & mask;
+        }
+        if (table[slot] == 0) {
+          table[slot] = i + 1;
+        }
+      }
+      index = table;
+    }
+    return table;
+  }
+
+  /** Hashes are uniformly distributed already, their leading bytes make a good bucket. */
+  private int hash(byte[] bytes, int offset) {
+    int h = 0;
+    for (int i = 0; i < Math.min(4, hashLength); i++) {
+      h = (h << 8) | (bytes[offset + i] & 0xFF);
+    }
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,60 @@
+package utils;
+
+import entity.ManifestEdit;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Computes and applies manifest diffs. */
+public class ManifestUtils {
+
+  /**
+   * Computes the edits turning one manifest into another. Content defined chunking keeps the
+   * chunks around a modification unchanged, so the common prefix and suffix cover everything but
+   * the modified region, which becomes a single replacement.
+   *
+   * @param base the chunk hashes of the base version
+   * @param target the chunk hashes of the new version
+   * @return the edits, empty if both are equal
+   */
+  public static List<ManifestEdit> diff(List<String> base, List<String> target) {
+    int prefix = 0;
+    int max = Math.min(base.size(), target.size());
+    while (prefix < max && base.get(prefix).equals(target.get(prefix))) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < max - prefix
+        && base.get(base.size() - 1 - suffix).equals(target.get(target.size() - 1 - suffix))) {
+      suffix++;
+    }
+    if (prefix == base.size() && prefix == target.size()) {
+      return new ArrayList<>();
+    }
+    List<String> hashes = new ArrayList<>(target.subList(prefix, target.size() - suffix));
+    List<ManifestEdit> edits = new ArrayList<>();
+    edits.add(new ManifestEdit(prefix, base.size() - suffix, hashes));
+    return edits;
+  }
+
+  /**
+   * Applies edits to a manifest.
+   *
+   * @param base the chunk hashes of the base version
+   * @param edits the edits, applied in order
+   * @return the chunk hashes of the new version
+   * @throws IllegalArgumentException if an edit lies outside the manifest
+   */
+  public static List<String> apply(List<String> base, List<ManifestEdit> edits) {
+    List<String> hashes = new ArrayList<>(base);
+    for (ManifestEdit edit : edits) {
+      if (edit.getStart() < 0 || edit.getStart() > edit.getEnd() || edit.getEnd() > hashes.size()) {
+        throw new IllegalArgumentException(
+            "Edit " + edit.getStart() + ".." + edit.getEnd() + " outside of " + hashes.size());
+      }
+      List<String> range = hashes.subList(edit.getStart(), edit.getEnd());
+      range.clear();
+      range.addAll(edit.getHashes());
+    }
+    return hashes;
+  }
+}
@@ -11,7 +11,11 @@ ENGINE=InnoDB
 
 CREATE TABLE `chunk` (
 	`hash` VARCHAR(128) NOT NULL COMMENT 'hash string of the chunk' COLLATE 'utf8mb4_0900_ai_ci',
-	PRIMARY KEY (`hash`) USING BTREE
+	`size` INT NOT NULL DEFAULT 0 COMMENT 'chunk size(byte)',
+	`refCount` BIGINT NOT NULL DEFAULT 0 COMMENT 'number of manifest positions referencing the chunk',
+	`updatedAt` BIGINT NOT NULL DEFAULT 0 COMMENT 'last time the chunk was written or referenced(timestamp)',
+	PRIMARY KEY (`hash`) USING BTREE,
+	INDEX `collectable` (`refCount`, `updatedAt`) USING BTREE
 )
 COLLATE='utf8mb4_0900_ai_ci'
 ENGINE=InnoDB
@@ -25,6 +29,7 @@ CREATE TABLE `file` (
 	`chunkCount` BIGINT NOT NULL COMMENT 'number of chunks',
 	`size` BIGINT NOT NULL COMMENT 'file size(byte)',
 	`hash` VARCHAR(128) NOT NULL COMMENT 'file hash hex string' COLLATE 'utf8mb4_0900_ai_ci',
+	`version` BIGINT NOT NULL DEFAULT 0 COMMENT 'manifest version, incremented on every upload',
 	PRIMARY KEY (`id`) USING BTREE,
 	UNIQUE INDEX `filepath_userId` (`filepath`, `email`) USING BTREE,
 	INDEX `FK_file_user` (`email`) USING BTREE,
@@ -41,7 +46,7 @@ CREATE TABLE `fc` (
 	`id` BIGINT NOT NULL AUTO_INCREMENT,
 	`fileId` BIGINT NOT NULL,
 	`chunkHash` VARCHAR(128) NOT NULL COMMENT 'chunk hash' COLLATE 'utf8mb4_0900_ai_ci',
-	`index` BIGINT NOT NULL COMMENT 'index of the chunk in the file',
+	`index` BIGINT NOT NULL COMMENT 'position of the chunk in the file',
 	PRIMARY KEY (`id`) USING BTREE,
 	UNIQUE INDEX `fileReference_index` (`index`, `fileId`) USING BTREE,
 	INDEX `chunkHash` (`chunkHash`) USING BTREE,
@@ -56,3 +61,83 @@ COLLATE='utf8mb4_0900_ai_ci'
 ENGINE=InnoDB
 AUTO_INCREMENT=488
 ;
+
+CREATE TABLE `change_cursor` (
+	`email` VARCHAR(128) NOT NULL COMMENT 'user email' COLLATE 'utf8mb4_0900_ai_ci',
+	`seq` BIGINT NOT NULL COMMENT 'latest change sequence number of the user',
+	PRIMARY KEY (`email`) USING BTREE,
+	CONSTRAINT `FK_change_cursor_user` FOREIGN KEY (`email`) REFERENCES `user` (`email`) ON UPDATE NO ACTION ON DELETE CASCADE
+)
+COMMENT='per-user change sequence, its row lock orders the changes of a user'
+COLLATE='utf8mb4_0900_ai_ci'
+ENGINE=InnoDB
+;
+
+CREATE TABLE `change_log` (
+	`email` VARCHAR(128) NOT NULL COMMENT 'user email' COLLATE 'utf8mb4_0900_ai_ci',
+	`seq` BIGINT NOT NULL COMMENT 'monotonic sequence number for given user',
+	`filepath` VARCHAR(256) NOT NULL COMMENT 'filepath for given user' COLLATE 'utf8mb4_0900_ai_ci',
+	`operation` VARCHAR(16) NOT NULL COMMENT 'UPSERT or DELETE' COLLATE 'utf8mb4_0900_ai_ci',
+	`lastModifiedTime` BIGINT NULL DEFAULT NULL COMMENT 'last modified time of the file after the change(timestamp)',
+	`version` BIGINT NULL DEFAULT NULL COMMENT 'manifest version of the file after the change',
+	`time` BIGINT NOT NULL COMMENT 'time of the change(timestamp)',
+	PRIMARY KEY (`email`, `seq`) USING BTREE,
+	CONSTRAINT `FK_change_log_user` FOREIGN KEY (`email`) REFERENCES `user` (`email`) ON UPDATE NO ACTION ON DELETE CASCADE
+)
+COMMENT='per-user log of file changes'
+COLLATE='utf8mb4_0900_ai_ci'
+ENGINE=InnoDB
+;
+
+CREATE TABLE `manifest` (
+	`fileId` BIGINT NOT NULL,
+	`version` BIGINT NOT NULL COMMENT 'manifest version of the hashes',
+	`chunkCount` BIGINT NOT NULL COMMENT 'number of chunks',
+	`hashes` LONGBLOB NOT NULL COMMENT 'hash length, chunk count and deflated raw chunk hashes in file order',
+	PRIMARY KEY (`fileId`) USING BTREE,
+	CONSTRAINT `FK_manifest_file` FOREIGN KEY (`fileId`) REFERENCES `file` (`id`) ON UPDATE NO ACTION ON DELETE NO ACTION
+)
+COMMENT='chunk hashes of every file as one value, used instead of fc rows by the blob manifest store'
+COLLATE='utf8mb4_0900_ai_ci'
+ENGINE=InnoDB
+;
+
+CREATE TABLE `manifest_history` (
+	`fileId` BIGINT NOT NULL,
+	`version` BIGINT NOT NULL COMMENT 'manifest version produced by the edits',
+	`edits` MEDIUMBLOB NOT NULL COMMENT 'encoded edits against the previous version',
+	PRIMARY KEY (`fileId`, `version`) USING BTREE,
+	CONSTRAINT `FK_manifest_history_file` FOREIGN KEY (`fileId`) REFERENCES `file` (`id`) ON UPDATE NO ACTION ON DELETE CASCADE
+)
+COMMENT='recent manifest edits of every file, to send diffs to clients holding an older version'
+COLLATE='utf8mb4_0900_ai_ci'
+ENGINE=InnoDB
+;
+
+CREATE TABLE `pack` (
+	`id` BIGINT NOT NULL AUTO_INCREMENT,
+	`name` VARCHAR(128) NOT NULL COMMENT 'object name of the pack' COLLATE 'utf8mb4_0900_ai_ci',
+	`size` BIGINT NOT NULL COMMENT 'pack size(byte)',
+	`liveSize` BIGINT NOT NULL COMMENT 'bytes of the pack still referenced by an entry',
+	`createdAt` BIGINT NOT NULL COMMENT 'creation time of the pack(timestamp)',
+	PRIMARY KEY (`id`) USING BTREE,
+	UNIQUE INDEX `name` (`name`) USING BTREE
+)
+COMMENT='storage objects holding many chunks back to back'
+COLLATE='utf8mb4_0900_ai_ci'
+ENGINE=InnoDB
+;
+
+CREATE TABLE `pack_entry` (
+	`hash` VARCHAR(128) NOT NULL COMMENT 'hash string of the chunk' COLLATE 'utf8mb4_0900_ai_ci',
+	`packId` BIGINT NOT NULL,
+	`offset` BIGINT NOT NULL COMMENT 'position of the chunk in the pack',
+	`length` INT NOT NULL COMMENT 'chunk size(byte)',
+	PRIMARY KEY (`hash`) USING BTREE,
+	INDEX `packId` (`packId`) USING BTREE,
+	CONSTRAINT `FK_pack_entry_pack` FOREIGN KEY (`packId`) REFERENCES `pack` (`id`) ON UPDATE NO ACTION ON DELETE CASCADE
+)
+COMMENT='location of every packed chunk'
+COLLATE='utf8mb4_0900_ai_ci'
+ENGINE=InnoDB
+;
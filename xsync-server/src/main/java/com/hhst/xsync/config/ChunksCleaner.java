@@ -1,38 +1,66 @@
 package com.hhst.xsync.config;
 
-import com.hhst.xsync.entity.Chunk;
-import com.hhst.xsync.service.IChunkService;
+import com.hhst.xsync.mapper.ChunkMapper;
 import com.hhst.xsync.service.ObjectStorageService;
 import java.util.List;
-import java.util.concurrent.CompletionException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+/**
+ * Collects chunks no manifest references. Chunks carry a reference count maintained with the
+ * manifests, so every run pages through the unreferenced ones only, in small batches each
+ * committed on its own. A chunk is kept for a grace period after it was last written or
+ * referenced, so uploads in progress do not lose chunks they have not referenced yet.
+ */
 @Configuration
 @Slf4j
 public class ChunksCleaner {
 
   @Autowired private ObjectStorageService storageService;
-  @Autowired private IChunkService chunkService;
+  @Autowired private ChunkMapper chunkMapper;
+  @Autowired private TransactionTemplate transactionTemplate;
 
-  /** Remove all isolated chunks in scheduled */
-  @Scheduled(fixedRateString = "${xsync.chunks-cleaner.rate}")
-  @Transactional
-  public void clean() {
-    List<Chunk> isolatedChunks = chunkService.getIsolatedChunks();
-    if (isolatedChunks.isEmpty()) return;
+  @Value("${xsync.chunks-cleaner.grace-period}")
+  private long gracePeriod;
+
+  @Value("${xsync.chunks-cleaner.batch-size}")
+  private int batchSize;
 
-    try {
-      storageService.removeObjects(isolatedChunks.stream().map(Chunk::getHash).toList()).join();
-    } catch (CompletionException e) {
-      log.error("Failed to remove isolated chunks from storage", e.getCause());
-      throw new RuntimeException("Storage deletion failed", e.getCause());
+  /** Remove unreferenced chunks in scheduled */
+  @Scheduled(fixedDelayString = "${xsync.chunks-cleaner.rate}")
+  public void clean() {
+    long cutoff = System.currentTimeMillis() - gracePeriod;
+    long cleaned = 0;
+    List<String> batch;
+    do {
+      try {
+        batch = transactionTemplate.execute(status -> collect(cutoff));
+      } catch (RuntimeException e) {
+        log.error("Failed to remove unreferenced chunks, retrying next run", e);
+        break;
+      }
+      cleaned += batch.size();
+    } while (batch.size() == batchSize);
+    if (cleaned > 0) {
+      log.info("Cleaned {} unreferenced chunks", cleaned);
     }
+  }
 
-    chunkService.removeBatchByIds(isolatedChunks);
-    log.info("Cleaned {} isolated chunks", isolatedChunks.size());
+  /**
+   * Removes one batch. The rows stay locked while their objects are removed, so an upload reusing
+   * one of the chunks waits and then finds it gone instead of relying on a removed object.
+   */
+  private List<String> collect(long cutoff) {
+    List<String> hashes = chunkMapper.lockCollectable(cutoff, batchSize);
+    if (hashes.isEmpty()) {
+      return hashes;
+    }
+    storageService.removeObjects(hashes).join();
+    chunkMapper.deleteByIds(hashes);
+    return hashes;
   }
 }
@@ -3,21 +3,43 @@ package com.hhst.xsync.config;
 import io.minio.BucketExistsArgs;
 import io.minio.MakeBucketArgs;
 import io.minio.MinioClient;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
+@ConditionalOnProperty(
+    name = "xsync.storage.backend",
+    havingValue = "minio",
+    matchIfMissing = true)
 public class MinioConfig {
 
   @Autowired MinioProperties properties;
+  @Autowired StorageProperties storageProperties;
 
   @Bean
   public MinioClient minioClient() {
+    // Idle connections are kept for as many calls as may be in flight, instead of the default 5
+    int connections = Math.max(storageProperties.getExecution().getMinioConcurrency(), 32);
+    var httpClient =
+        new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(connections, 5, TimeUnit.MINUTES))
+            .connectTimeout(5, TimeUnit.MINUTES)
+            .writeTimeout(5, TimeUnit.MINUTES)
+            .readTimeout(5, TimeUnit.MINUTES)
+            .protocols(List.of(Protocol.HTTP_1_1))
+            .build();
     var client =
         MinioClient.builder()
             .endpoint(properties.getEndpoint())
             .credentials(properties.getAccessKey(), properties.getSecretKey())
+            .httpClient(httpClient)
             .build();
     try {
       if (!client.bucketExists(BucketExistsArgs.builder().bucket(properties.getBucket()).build())) {
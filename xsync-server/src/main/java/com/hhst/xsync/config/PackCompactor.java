@@ -0,0 +1,36 @@
+package com.hhst.xsync.config;
+
+import com.hhst.xsync.service.impl.PackStorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Rewrites packs the chunks cleaner left sparse, so the storage they hold is reclaimed without
+ * rewriting a pack for every removed chunk.
+ */
+@Configuration
+@ConditionalOnProperty(
+    name = "xsync.storage.pack.enabled",
+    havingValue = "true",
+    matchIfMissing = true)
+@Slf4j
+public class PackCompactor {
+
+  @Autowired private PackStorageService packStorageService;
+
+  /** Compact sparse packs in scheduled */
+  @Scheduled(fixedDelayString = "${xsync.storage.pack.compact-rate}")
+  public void compact() {
+    try {
+      int removed = packStorageService.compact();
+      if (removed > 0) {
+        log.info("Compacted {} sparse packs", removed);
+      }
+    } catch (RuntimeException e) {
+      log.error("Failed to compact packs, retrying next run", e);
+    }
+  }
+}
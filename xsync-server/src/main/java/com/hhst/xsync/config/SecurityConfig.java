@@ -32,6 +32,8 @@ public class SecurityConfig {
             auth ->
                 auth.requestMatchers("/user/login", "/user/register", "/error")
                     .permitAll()
+                    .requestMatchers("/storage/**")
+                    .hasRole("ADMIN")
                     .anyRequest()
                     .hasAnyRole("USER", "ADMIN"))
         .exceptionHandling(
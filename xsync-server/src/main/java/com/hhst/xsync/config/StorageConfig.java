@@ -0,0 +1,119 @@
+package com.hhst.xsync.config;
+
+import com.hhst.xsync.mapper.ChunkMapper;
+import com.hhst.xsync.mapper.PackMapper;
+import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.impl.CachingStorageService;
+import com.hhst.xsync.service.impl.DedupStorageService;
+import com.hhst.xsync.service.impl.DiskCacheStorageService;
+import com.hhst.xsync.service.impl.PackStorageService;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Assembles the object storage used by the application: the backend wrapped by decorators, each
+ * implementing {@link ObjectStorageService} itself. Components injecting the storage get the
+ * outermost one.
+ */
+@Configuration
+@Slf4j
+public class StorageConfig {
+
+  @Autowired private StorageProperties properties;
+
+  @Bean
+  @ConditionalOnProperty(
+      name = "xsync.storage.pack.enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public PackStorageService packStorageService(
+      @Qualifier("backend") ObjectStorageService backend,
+      PackMapper packMapper,
+      TransactionTemplate transactionTemplate,
+      @Qualifier("minioExecutor") Executor executor) {
+    return new PackStorageService(
+        backend, packMapper, transactionTemplate, executor, properties.getPack());
+  }
+
+  @Bean
+  public DedupStorageService dedupStorageService(
+      @Qualifier("backend") ObjectStorageService backend,
+      ObjectProvider<PackStorageService> packStorageService,
+      ChunkMapper chunkMapper,
+      TransactionTemplate transactionTemplate,
+      @Qualifier("minioExecutor") Executor executor) {
+    ObjectStorageService storage = packStorageService.getIfAvailable(() -> backend);
+    DedupStorageService dedup =
+        new DedupStorageService(storage, chunkMapper, transactionTemplate, properties.getDedup());
+    // Until loaded the filter is bypassed, so startup does not wait for the chunk table
+    CompletableFuture.runAsync(dedup::load, executor)
+        .exceptionally(
+            e -> {
+              log.error("Failed to load the dedup filter, checking every chunk in the table", e);
+              return null;
+            });
+    return dedup;
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "xsync.storage.disk.enabled", havingValue = "true")
+  public DiskCacheStorageService diskCacheStorageService(
+      DedupStorageService dedupStorageService,
+      @Qualifier("diskExecutor") Executor executor) {
+    StorageProperties.Disk disk = properties.getDisk();
+    DiskCacheStorageService cache =
+        new DiskCacheStorageService(
+            dedupStorageService, Path.of(disk.getDirectory()), disk.getMaxBytes(), executor);
+    // Chunks of the previous run are served once indexed, until then they are read remotely
+    CompletableFuture.runAsync(
+            () -> {
+              try {
+                cache.load();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executor)
+        .exceptionally(
+            e -> {
+              log.error("Failed to load the disk cache, starting with an empty one", e);
+              return null;
+            });
+    return cache;
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      name = "xsync.storage.cache.enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public CachingStorageService cachingStorageService(
+      DedupStorageService dedupStorageService,
+      ObjectProvider<DiskCacheStorageService> diskCacheStorageService) {
+    ObjectStorageService storage =
+        diskCacheStorageService.getIfAvailable(() -> dedupStorageService);
+    return new CachingStorageService(storage, properties.getCache().getMaxBytes());
+  }
+
+  @Bean
+  @Primary
+  public ObjectStorageService storageService(
+      DedupStorageService dedupStorageService,
+      ObjectProvider<DiskCacheStorageService> diskCacheStorageService,
+      ObjectProvider<CachingStorageService> cachingStorageService) {
+    return cachingStorageService.getIfAvailable(
+        () -> diskCacheStorageService.getIfAvailable(() -> dedupStorageService));
+  }
+}
@@ -0,0 +1,113 @@
+package com.hhst.xsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "xsync.storage")
+@Data
+public class StorageProperties {
+
+  /** Where objects are stored: "minio" for a MinIO bucket, "local" for a local directory. */
+  private String backend = "minio";
+
+  private Local local = new Local();
+
+  private Dedup dedup = new Dedup();
+
+  private Pack pack = new Pack();
+
+  private Cache cache = new Cache();
+
+  private Disk disk = new Disk();
+
+  private Execution execution = new Execution();
+
+  @Data
+  public static class Local {
+    /** Directory of the objects of the local backend. */
+    private String directory = "data/objects";
+
+    /** Whether writes complete only once their files are synced to the disk. */
+    private boolean fsync = true;
+  }
+
+  @Data
+  public static class Dedup {
+    /** Number of chunks the bloom filter is sized for. */
+    private long expectedChunks = 10_000_000;
+
+    /** False positive rate of the bloom filter at the expected number of chunks. */
+    private double falsePositiveRate = 0.01;
+
+    /** Chunk hashes whose existence is remembered. */
+    private long cacheSize = 1_000_000;
+
+    /**
+     * Milliseconds an existing chunk is trusted without marking it used again, shorter than the
+     * grace period of the chunks cleaner.
+     */
+    private long ttl = 3_600_000;
+  }
+
+  @Data
+  public static class Pack {
+    /** Whether new chunks are appended to pack objects instead of stored one object each. */
+    private boolean enabled = true;
+
+    /** Bytes after which a pack is sealed and written, chunks above a quarter of it stay alone. */
+    private int size = 8 * 1024 * 1024;
+
+    /** Milliseconds a pack stays open for more chunks before it is written anyway. */
+    private long flushDelay = 200;
+
+    /** Locations of packed chunks remembered, saving an index lookup per read. */
+    private long cacheSize = 1_000_000;
+
+    /** Share of live bytes below which a pack is rewritten by compaction. */
+    private double compactRatio = 0.5;
+
+    /** Sparse packs rewritten per compaction round. */
+    private int compactBatch = 64;
+
+    /** Milliseconds between compaction rounds. */
+    private long compactRate = 3_600_000;
+  }
+
+  @Data
+  public static class Cache {
+    /** Whether chunks read are kept in memory. */
+    private boolean enabled = true;
+
+    /** Total size of the chunks kept in memory. */
+    private long maxBytes = 256L * 1024 * 1024;
+  }
+
+  @Data
+  public static class Disk {
+    /** Whether chunks are kept on a local disk as well. */
+    private boolean enabled = false;
+
+    /** Directory of the cached chunks, kept across restarts. */
+    private String directory = "cache/chunks";
+
+    /** Total size of the chunks kept on the disk. */
+    private long maxBytes = 10L * 1024 * 1024 * 1024;
+  }
+
+  @Data
+  public static class Execution {
+    /**
+     * How blocking storage calls run: "virtual" for a virtual thread per call, limited by the
+     * concurrency of each backend, "platform" for bounded thread pools.
+     */
+    private String mode = "virtual";
+
+    /** Backend calls, to MinIO or the local directory, in flight at most in virtual mode. */
+    private int minioConcurrency = 256;
+
+    /** Disk cache operations in flight at most in virtual mode. */
+    private int diskConcurrency = 64;
+  }
+}
@@ -1,6 +1,11 @@
 package com.hhst.xsync.config;
 
+import com.hhst.xsync.utils.BufferPool;
+import com.hhst.xsync.utils.ByteBudget;
+import com.hhst.xsync.utils.VirtualThreadExecutor;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -8,8 +13,14 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 @Configuration
 public class ThreadConfig {
 
+  private static final String VIRTUAL = "virtual";
+
   @Bean("minioExecutor")
-  public ThreadPoolTaskExecutor minioExecutor() {
+  public Executor minioExecutor(StorageProperties properties) {
+    StorageProperties.Execution execution = properties.getExecution();
+    if (VIRTUAL.equals(execution.getMode())) {
+      return new VirtualThreadExecutor("minio-", execution.getMinioConcurrency());
+    }
     var executor = new ThreadPoolTaskExecutor();
     executor.setCorePoolSize(8);
     executor.setMaxPoolSize(32);
@@ -21,4 +32,46 @@ public class ThreadConfig {
     executor.initialize();
     return executor;
   }
+
+  @Bean("diskExecutor")
+  public Executor diskExecutor(StorageProperties properties) {
+    StorageProperties.Execution execution = properties.getExecution();
+    if (VIRTUAL.equals(execution.getMode())) {
+      return new VirtualThreadExecutor("disk-", execution.getDiskConcurrency());
+    }
+    var executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(4);
+    executor.setMaxPoolSize(16);
+    executor.setQueueCapacity(1024);
+    executor.setKeepAliveSeconds(60);
+    executor.setThreadNamePrefix("disk-");
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.initialize();
+    return executor;
+  }
+
+  @Bean("changeExecutor")
+  public ThreadPoolTaskExecutor changeExecutor() {
+    var executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(2);
+    executor.setMaxPoolSize(8);
+    executor.setQueueCapacity(4096);
+    executor.setKeepAliveSeconds(60);
+    executor.setThreadNamePrefix("change-");
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.initialize();
+    return executor;
+  }
+
+  /** Bytes of uploaded chunks all requests together may hold in memory while they are stored. */
+  @Bean("uploadBudget")
+  public ByteBudget uploadBudget(@Value("${xsync.upload.global-budget}") long capacity) {
+    return new ByteBudget(capacity);
+  }
+
+  /** Buffers copying objects from the storage into responses. */
+  @Bean("copyBuffers")
+  public BufferPool copyBuffers() {
+    return new BufferPool(64 * 1024, 256);
+  }
 }
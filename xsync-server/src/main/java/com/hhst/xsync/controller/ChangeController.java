@@ -0,0 +1,137 @@
+package com.hhst.xsync.controller;
+
+import com.hhst.xsync.dto.ChangeFeed;
+import com.hhst.xsync.dto.Response;
+import com.hhst.xsync.entity.Change;
+import com.hhst.xsync.service.IChangeService;
+import com.hhst.xsync.utils.JwtUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/change")
+public class ChangeController {
+
+  private static final Log log = LogFactory.getLog(ChangeController.class);
+
+  @Value("${xsync.change-feed.poll-timeout}")
+  private long pollTimeout;
+
+  @Value("${xsync.change-feed.stream-timeout}")
+  private long streamTimeout;
+
+  @Value("${xsync.change-feed.batch-size}")
+  private int batchSize;
+
+  @Autowired private IChangeService changeService;
+  @Autowired private JwtUtils jwtUtils;
+
+  @Autowired
+  @Qualifier("changeExecutor")
+  private Executor executor;
+
+  /**
+   * Long-poll the change log. Returns at once if there are changes after the cursor, otherwise
+   * waits until one is committed or the poll times out.
+   *
+   * @param cursor sequence number of the last change seen by the client
+   * @return response containing the changes and the cursor to resume from
+   */
+  @GetMapping("/poll")
+  public DeferredResult<Response> poll(
+      @RequestParam(value = "cursor", defaultValue = "0") long cursor,
+      HttpServletRequest request) {
+    String subject = jwtUtils.extractUserSubject(request).orElse(null);
+    DeferredResult<Response> result = new DeferredResult<>(pollTimeout);
+    if (subject == null) {
+      result.setResult(Response.build(HttpStatus.UNAUTHORIZED, "Unauthorized request"));
+      return result;
+    }
+    // Subscribe before checking so a change committed in between is not missed
+    Runnable unsubscribe =
+        changeService.subscribe(
+            subject, seq -> executor.execute(() -> result.setResult(feed(subject, cursor))));
+    result.onCompletion(unsubscribe);
+    // A single read on timeout picks up changes whose notification was lost
+    result.onTimeout(() -> result.setResult(feed(subject, cursor)));
+    if (changeService.latest(subject) > cursor) {
+      result.setResult(feed(subject, cursor));
+    }
+    return result;
+  }
+
+  /**
+   * Stream the change log as Server-Sent Events. Each event carries its sequence number as id, so
+   * a reconnecting client resumes through the Last-Event-ID header.
+   *
+   * @param cursor sequence number of the last change seen by the client
+   * @param lastEventId sequence number sent by a reconnecting event source
+   * @return the event stream
+   */
+  @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter stream(
+      @RequestParam(value = "cursor", defaultValue = "0") long cursor,
+      @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+      HttpServletRequest request) {
+    String subject =
+        jwtUtils
+            .extractUserSubject(request)
+            .orElseThrow(
+                () -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized request"));
+    SseEmitter emitter = new SseEmitter(streamTimeout);
+    AtomicLong position = new AtomicLong(lastEventId != null ? lastEventId : cursor);
+    Runnable unsubscribe =
+        changeService.subscribe(
+            subject, seq -> executor.execute(() -> send(emitter, subject, position)));
+    emitter.onCompletion(unsubscribe);
+    emitter.onTimeout(unsubscribe);
+    emitter.onError(e -> unsubscribe.run());
+    executor.execute(() -> send(emitter, subject, position));
+    return emitter;
+  }
+
+  private Response feed(String subject, long cursor) {
+    List<Change> changes = changeService.listSince(subject, cursor, batchSize);
+    long next = changes.isEmpty() ? cursor : changes.getLast().getSeq();
+    return Response.build(HttpStatus.OK, "Changes fetched", new ChangeFeed(next, changes));
+  }
+
+  /** Send every change after the stream position, serialized per stream. */
+  private void send(SseEmitter emitter, String subject, AtomicLong position) {
+    synchronized (position) {
+      try {
+        while (changeService.latest(subject) > position.get()) {
+          List<Change> changes = changeService.listSince(subject, position.get(), batchSize);
+          if (changes.isEmpty()) {
+            break;
+          }
+          for (Change change : changes) {
+            emitter.send(
+                SseEmitter.event()
+                    .id(String.valueOf(change.getSeq()))
+                    .name("change")
+                    .data(change, MediaType.APPLICATION_JSON));
+            position.set(change.getSeq());
+          }
+        }
+      } catch (IOException | IllegalStateException e) {
+        log.debug("Change stream closed: " + e.getMessage());
+        emitter.completeWithError(e);
+      }
+    }
+  }
+}
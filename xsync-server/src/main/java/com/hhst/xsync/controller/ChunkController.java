@@ -1,11 +1,19 @@
 package com.hhst.xsync.controller;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.hhst.xsync.dto.Response;
 import com.hhst.xsync.entity.Chunk;
-import com.hhst.xsync.entity.Fc;
 import com.hhst.xsync.entity.File;
 import com.hhst.xsync.entity.Metadata;
 import com.hhst.xsync.service.*;
+import com.hhst.xsync.utils.BufferPool;
+import com.hhst.xsync.utils.ByteBudget;
+import com.hhst.xsync.utils.ChunkPrefetcher;
+import com.hhst.xsync.utils.DeltaUtils;
+import com.hhst.xsync.utils.FrameCodec;
+import com.hhst.xsync.utils.HashList;
 import com.hhst.xsync.utils.HashUtils;
 import com.hhst.xsync.utils.JwtUtils;
 import com.hhst.xsync.utils.RateLimiter;
@@ -14,19 +22,24 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import java.io.*;
+import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
@@ -37,32 +50,57 @@ public class ChunkController {
 
   private static final Log log = LogFactory.getLog(ChunkController.class);
 
+  /** Length of the SHA-256 chunk hashes, announced by streams of chunks resolved on the server. */
+  private static final int HASH_LENGTH = 32;
+
   @Value("${xsync.speed-limiter.upload-batch.rate}")
   private long uploadRate;
 
   @Value("${xsync.speed-limiter.fetch-batch.rate}")
   private long fetchRate;
 
+  @Value("${xsync.fetch.window}")
+  private int fetchWindow;
+
+  @Value("${xsync.fetch.window-bytes}")
+  private long fetchWindowBytes;
+
+  @Value("${xsync.upload.request-budget}")
+  private long requestBudget;
+
+  @Autowired
+  @Qualifier("uploadBudget")
+  private ByteBudget uploadBudget;
+
+  @Autowired
+  @Qualifier("copyBuffers")
+  private BufferPool copyBuffers;
+
   @Autowired private ObjectStorageService storageService;
-  @Autowired private IChunkService chunkService;
   @Autowired private IFileService fileService;
-  @Autowired private IFcService fcService;
+  @Autowired private IManifestService manifestService;
   @Autowired private JwtUtils jwtUtils;
 
   /**
-   * Upload a file containing multiple chunks.
+   * Upload a file containing multiple chunks. The file part is either a framed stream (see {@link
+   * FrameCodec}) starting with the manifest and carrying delta bases in the chunk frames, or the
+   * legacy sequence of length prefixed chunks described by the other parts. A framed manifest may
+   * be a diff against the current version of the file, which is rejected with a conflict if the
+   * file has moved on since.
    *
    * @param ha hash algorithm
-   * @param meta metadata of file
+   * @param meta metadata of file, only for legacy uploads
+   * @param deltaBases base chunk hash of every delta encoded chunk, by its ordinal in the stream,
+   *     only for legacy uploads
    * @param multipart of the file
-   * @return response
+   * @return response holding the new manifest version
    */
   @PostMapping(value = "/upload/batch", consumes = "multipart/form-data")
-  @Transactional
   public Response uploadBatch(
-      @RequestPart("hash") @NotEmpty String hash,
+      @RequestPart(value = "hash", required = false) String hash,
       @RequestPart("hash-algorithm") @NotEmpty String ha,
-      @RequestPart("metadata") @Valid Metadata meta,
+      @RequestPart(value = "metadata", required = false) @Valid Metadata meta,
+      @RequestPart(value = "delta-bases", required = false) Map<Integer, String> deltaBases,
       @RequestPart("file") @NotNull MultipartFile multipart,
       HttpServletRequest request) {
 
@@ -71,77 +109,232 @@ public class ChunkController {
       return Response.build(HttpStatus.UNAUTHORIZED, "Unauthorized request");
     }
 
-    try (InputStream is = multipart.getInputStream()) {
+    try (InputStream is = new BufferedInputStream(multipart.getInputStream())) {
+      return ingest(subject, ha, hash, meta, deltaBases, is);
+    } catch (IOException e) {
+      log.error("Upload batch failed", e);
+      return Response.build(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error");
+    }
+  }
+
+  /**
+   * Upload a framed stream (see {@link FrameCodec}) as the raw request body. Unlike the multipart
+   * endpoint nothing is spooled by the container, chunks are verified and handed to the storage
+   * while the rest of the body is still arriving. No transaction is open meanwhile, the database is
+   * only written once the whole stream is verified and stored.
+   *
+   * @param ha hash algorithm
+   * @return response holding the new manifest version
+   */
+  @PostMapping(
+      value = "/upload/stream",
+      consumes = {FrameCodec.MEDIA_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+  public Response uploadStream(
+      @RequestHeader("X-Hash-Algorithm") @NotEmpty String ha, HttpServletRequest request) {
+
+    String subject = jwtUtils.extractUserSubject(request).orElse(null);
+    if (subject == null) {
+      return Response.build(HttpStatus.UNAUTHORIZED, "Unauthorized request");
+    }
+
+    try (InputStream is = new BufferedInputStream(request.getInputStream())) {
+      if (!FrameCodec.isFramed(is)) {
+        return Response.build(HttpStatus.BAD_REQUEST, "Framed stream expected");
+      }
+      return ingest(subject, ha, null, null, null, is);
+    } catch (IOException e) {
+      log.error("Upload stream failed", e);
+      return Response.build(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error");
+    }
+  }
+
+  /**
+   * Reads an uploaded batch, stores its chunks and updates the manifest of the file.
+   *
+   * @param subject the uploading user
+   * @param ha hash algorithm
+   * @param hash hash of the concatenated chunks, only for legacy uploads
+   * @param meta metadata of the file, only for legacy uploads
+   * @param deltaBases base chunk hash of every delta encoded chunk, only for legacy uploads
+   * @param is the buffered batch, framed or legacy
+   * @return response holding the new manifest version
+   */
+  private Response ingest(
+      String subject,
+      String ha,
+      String hash,
+      Metadata meta,
+      Map<Integer, String> deltaBases,
+      InputStream is) {
+    try {
+      FrameCodec.Reader frames = null;
+      if (FrameCodec.isFramed(is)) {
+        frames = new FrameCodec.Reader(is);
+        if (frames.next() != FrameCodec.MANIFEST) {
+          return Response.build(HttpStatus.BAD_REQUEST, "Manifest frame expected");
+        }
+        meta = frames.getManifest();
+      } else if (meta == null || !StringUtils.hasLength(hash)) {
+        return Response.build(HttpStatus.BAD_REQUEST, "Missing metadata");
+      }
+      if (meta.getFilesize() == null) {
+        return Response.build(HttpStatus.BAD_REQUEST, "Missing file size");
+      }
+
+      // Hashes the uploaded chunks must belong to: the whole manifest, or the edits of a diff. A
+      // framed manifest is a packed list with its own index, it is not copied into a set
+      Collection<String> manifestHashes;
+      File current = null;
+      if (meta.getEdits() != null) {
+        current = fileService.getFileWithCache(subject, meta.getFilepath());
+        if (current == null || !Objects.equals(current.getVersion(), meta.getBaseVersion())) {
+          return Response.build(HttpStatus.CONFLICT, "Manifest base version mismatch");
+        }
+        int count = IManifestService.resultingCount(meta.getEdits(), current.getChunkCount());
+        if (count != meta.getChunkCount()) {
+          return Response.build(HttpStatus.BAD_REQUEST, "Invalid manifest chunk count");
+        }
+        Set<String> editHashes = new HashSet<>();
+        meta.getEdits().forEach(edit -> editHashes.addAll(edit.getHashes()));
+        manifestHashes = editHashes;
+      } else {
+        manifestHashes =
+            meta.getChunkHashes() instanceof HashList hashList
+                ? hashList
+                : new HashSet<>(meta.getChunkHashes());
+        meta.setChunkCount(meta.getChunkHashes().size());
+      }
+
       RateLimiter limiter = RateLimiter.newInstance(uploadRate);
       // Create Chunk entities
       List<Chunk> chunks = new ArrayList<>();
-      // Create Fc entities
-      List<Fc> fcs = new ArrayList<>();
 
       HashUtils.Hasher hasher = new HashUtils.Hasher("SHA-256");
 
-      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      // Chunks being stored count against the budgets until written, so the parser blocks instead
+      // of piling up chunks in memory when the storage falls behind
+      ByteBudget budget = new ByteBudget(requestBudget, uploadBudget);
+      AtomicReference<Throwable> failure = new AtomicReference<>();
 
-      while (true) {
+      for (int ordinal = 0; ; ordinal++) {
         try {
-          byte[] lenBytes = IOUtils.readFully(is, 4); // read chunk length (int)
-          int length = ByteBuffer.wrap(lenBytes).getInt();
-          byte[] chunk = IOUtils.readFully(is, length); // read chunk
+          byte[] chunk;
+          String base;
+          Integer level = null;
+          if (frames != null) {
+            int type = frames.next();
+            if (type == FrameCodec.END) {
+              break;
+            } else if (type != FrameCodec.CHUNK) {
+              return Response.build(HttpStatus.BAD_REQUEST, "Unexpected frame: " + type);
+            }
+            chunk = frames.getData();
+            base = frames.getBase();
+            level = frames.getLevel();
+          } else {
+            byte[] lenBytes;
+            try {
+              lenBytes = IOUtils.readFully(is, 4); // read chunk length (int)
+            } catch (EOFException e) {
+              break;
+            }
+            int length = ByteBuffer.wrap(lenBytes).getInt();
+            if (length < 0 || length > FrameCodec.MAX_CHUNK_FRAME_SIZE) {
+              return Response.build(HttpStatus.BAD_REQUEST, "Invalid chunk length");
+            }
+            chunk = IOUtils.readFully(is, length); // read chunk
+            base = deltaBases == null ? null : deltaBases.get(ordinal);
+          }
 
           // Rate limiting
-          limiter.limiting(length);
+          limiter.limiting(chunk.length);
 
+          // Reconstruct delta encoded chunk from its base
+          if (base != null) {
+            byte[] stored = storageService.getObject(base).join();
+            chunk =
+                level != null
+                    ? DeltaUtils.reconstruct(chunk, stored, level)
+                    : DeltaUtils.reconstruct(chunk, stored);
+          }
           // Compute chunk hash
           String chunkHash = HashUtils.hash(chunk, ha);
           // Update chunk hash for computing file hash
           hasher.update(chunk);
 
-          chunks.add(new Chunk(chunkHash, chunk.length));
-          /*
-           * NOTE: the index is not the actual index in the file but the first occurrence place in the
-           * file, this field is used to delete the invalid chunk(delete if index greater than chunk
-           * count) but indicate the index of chunk.
-           */
-          int index = meta.getChunkHashes().indexOf(chunkHash);
-          if (index == -1) {
+          if (!manifestHashes.contains(chunkHash)) {
             return Response.build(HttpStatus.BAD_REQUEST, "Invalid chunk");
           }
-          fcs.add(new Fc(null, null, chunkHash, index));
+          chunks.add(new Chunk(chunkHash, chunk.length));
           // Upload it to minio server
-          futures.add(storageService.putObject(chunkHash, chunk));
+          if (failure.get() != null) {
+            break;
+          }
+          long size = chunk.length;
+          budget.acquire(size);
+          CompletableFuture<Void> put;
+          try {
+            put = storageService.putObject(chunkHash, chunk);
+          } catch (RuntimeException e) {
+            budget.release(size);
+            throw e;
+          }
+          put.whenComplete(
+              (v, e) -> {
+                if (e != null) {
+                  failure.compareAndSet(null, e);
+                }
+                budget.release(size);
+              });
 
         } catch (EOFException e) {
-          break;
+          return Response.build(HttpStatus.BAD_REQUEST, "Truncated chunk stream");
+        } catch (IllegalArgumentException e) {
+          return Response.build(HttpStatus.BAD_REQUEST, e.getMessage());
         } catch (RuntimeException e) {
           return Response.build(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
         }
       }
 
-      // Check file integrity
-      if (!hash.equals(hasher.getHash())) {
-        return Response.build(HttpStatus.BAD_REQUEST, "File integrity check failed");
+      // Wait all storage service tasks completed
+      budget.awaitDrained();
+      if (failure.get() != null) {
+        log.error("Failed to store chunks", failure.get());
+        return Response.build(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to store chunks");
       }
 
-      // Wait all storage service tasks completed
-      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-      // Upsert chunks in batch and get the file delta size
-      int delta = chunkService.upsertBatch(chunks);
+      // Check file integrity, a framed stream carries the hash in its trailer
+      if (frames != null) {
+        if (StringUtils.hasLength(hash) && !hash.equals(frames.getHash())) {
+          return Response.build(HttpStatus.BAD_REQUEST, "Conflicting batch hashes");
+        }
+        hash = frames.getHash();
+      }
+      if (!hasher.getHash().equals(hash)) {
+        return Response.build(HttpStatus.BAD_REQUEST, "File integrity check failed");
+      }
 
-      // Create file entity
+      // Only now that the chunks are stored, record them along with the file and its manifest
       File file =
           new File(
               null,
               meta.getFilepath(),
               subject,
               meta.getLastModifiedTime(),
-              meta.getChunkHashes().size(),
-              meta.getFilesize(), // use the post file size first
-              meta.getFileHash());
-      fileService.upsert(file, delta);
-
-      Boolean ignored = fcService.upsertBatch(fcs, file.getId());
+              meta.getChunkCount(),
+              meta.getFilesize(),
+              meta.getFileHash(),
+              null);
+      if (current != null) {
+        file.setId(current.getId());
+      }
+      if (!fileService.commitUpload(
+          file, chunks, meta, current != null ? current.getChunkCount() : null)) {
+        // Changed since the check above, the stored chunks are left to the cleaner
+        return Response.build(HttpStatus.CONFLICT, "Manifest base version mismatch");
+      }
 
-      return Response.build(HttpStatus.CREATED, "Chunks uploaded");
+      return Response.build(HttpStatus.CREATED, "Chunks uploaded", file.getVersion());
 
     } catch (IllegalArgumentException e) {
       log.error("Invalid argument: ", e);
@@ -153,39 +346,304 @@ public class ChunkController {
   }
 
   /**
-   * Fetch multiple chunks by a list of hashes.
+   * Fetch multiple chunks by a list of hashes. Clients accepting {@link FrameCodec#MEDIA_TYPE} get
+   * a framed stream whose trailer confirms that every chunk was sent, others the legacy sequence of
+   * length prefixed chunks. Chunks are opened a bounded window ahead of the client and copied from
+   * the storage through pooled buffers.
    *
    * @param hashes list of chunk hashes
    * @return list of chunk data
    */
   @PostMapping("/fetch/batch")
   public ResponseEntity<StreamingResponseBody> fetchBatch(
-      @RequestBody @NotEmpty List<String> hashes) {
+      @RequestBody @NotEmpty List<String> hashes,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+    boolean framed = accept != null && accept.contains(FrameCodec.MEDIA_TYPE);
     StreamingResponseBody body =
         outputStream -> {
+          byte[] copyBuffer = copyBuffers.acquire();
           try (BufferedOutputStream buffer =
-              RateLimiter.newInstance(fetchRate).stream(outputStream)) {
-            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
-            for (String hash : hashes) {
-              futures.add(storageService.getObject(hash));
+                  RateLimiter.newInstance(fetchRate).stream(outputStream);
+              ChunkPrefetcher chunks =
+                  new ChunkPrefetcher(
+                      hashes.iterator(),
+                      storageService::openObject,
+                      fetchWindow,
+                      fetchWindowBytes)) {
+            FrameCodec.Writer frames = null;
+            if (framed) {
+              frames = new FrameCodec.Writer(buffer, hashes.getFirst().length() / 2);
+              frames.writeHeader();
             }
             ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
-            for (var future : futures) {
-              byte[] chunk = future.get();
-              // write chunk length
-              lengthBuffer.clear();
-              buffer.write(lengthBuffer.putInt(chunk.length).array());
-              // write chunk data
-              buffer.write(chunk);
+            while (chunks.hasNext()) {
+              try (ObjectStream chunk = chunks.next()) {
+                if (frames != null) {
+                  frames.writeChunk(chunk.getStream(), chunk.getLength(), copyBuffer);
+                } else {
+                  // write chunk length
+                  lengthBuffer.clear();
+                  buffer.write(lengthBuffer.putInt((int) chunk.getLength()).array());
+                  // write chunk data
+                  long length = chunk.getLength();
+                  if (IOUtils.copyLarge(chunk.getStream(), buffer, 0, length, copyBuffer)
+                      != length) {
+                    throw new EOFException("Chunk ended early");
+                  }
+                }
+              }
               buffer.flush();
             }
+            if (frames != null) {
+              frames.writeEnd(null);
+            }
           } catch (Exception e) {
             log.error("Failed to stream chunks", e);
+          } finally {
+            copyBuffers.release(copyBuffer);
           }
         };
+    MediaType contentType =
+        framed
+            ? MediaType.parseMediaType(FrameCodec.MEDIA_TYPE)
+            : MediaType.APPLICATION_OCTET_STREAM;
     return ResponseEntity.ok()
         .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=chunks")
+        .contentType(contentType)
+        .body(body);
+  }
+
+  /**
+   * Download a stored file, its chunks resolved from the manifest on the server so that clients do
+   * not send the chunk hashes back. Clients accepting {@link FrameCodec#MEDIA_TYPE} get the chunks
+   * as a framed stream, others the stored bytes of the chunks back to back. These are the file
+   * content only if the client stored its chunks unprocessed: compressed or encrypted chunks are
+   * sent as stored, and the length and byte ranges count stored bytes, not those of the file. When
+   * the whole file is requested and the stored size of every chunk is known, the length is declared
+   * and a single byte range may be requested with a Range header. If the file changes while it is
+   * sent, the stream is cut short before its end, so clients never accept a mix of two versions.
+   *
+   * @param path path of the file URL encoded, as by the other calls naming a file, if no id is
+   *     given
+   * @param id id of the file
+   * @param from position of the first chunk to send
+   * @param to position after the last chunk to send
+   * @param version the version the client expects, answered with a conflict if the file has
+   *     another one
+   * @return the chunks or the content of the file, or an empty body with the error status
+   */
+  @GetMapping("/fetch/file")
+  public ResponseEntity<StreamingResponseBody> fetchFile(
+      @RequestParam(value = "path", required = false) String path,
+      @RequestParam(value = "id", required = false) Long id,
+      @RequestParam(value = "from", required = false) Integer from,
+      @RequestParam(value = "to", required = false) Integer to,
+      @RequestParam(value = "version", required = false) Long version,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+      @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+      HttpServletRequest request) {
+    String subject = jwtUtils.extractUserSubject(request).orElse(null);
+    if (subject == null) {
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+    }
+    File file = null;
+    if (id != null) {
+      file = fileService.getById(id);
+    } else if (StringUtils.hasText(path)) {
+      file = fileService.getFileWithCache(subject, URLDecoder.decode(path, StandardCharsets.UTF_8));
+    }
+    if (file == null || !subject.equals(file.getEmail())) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    if (version != null && !version.equals(file.getVersion())) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+    int first = from != null ? from : 0;
+    int end = to != null ? to : file.getChunkCount();
+    if (first < 0 || first > end || end > file.getChunkCount()) {
+      return ResponseEntity.badRequest().build();
+    }
+    String etag = "\"" + file.getVersion() + "\"";
+    File requested = file;
+
+    if (accept != null && accept.contains(FrameCodec.MEDIA_TYPE)) {
+      Iterator<String> hashes =
+          Iterators.transform(manifestService.iterateChunks(file, first, end), Chunk::getHash);
+      StreamingResponseBody body =
+          outputStream -> {
+            byte[] copyBuffer = copyBuffers.acquire();
+            try (BufferedOutputStream buffer =
+                    RateLimiter.newInstance(fetchRate).stream(outputStream);
+                ChunkPrefetcher chunks =
+                    new ChunkPrefetcher(
+                        hashes, storageService::openObject, fetchWindow, fetchWindowBytes)) {
+              FrameCodec.Writer frames = new FrameCodec.Writer(buffer, HASH_LENGTH);
+              frames.writeHeader();
+              while (chunks.hasNext()) {
+                try (ObjectStream chunk = chunks.next()) {
+                  frames.writeChunk(chunk.getStream(), chunk.getLength(), copyBuffer);
+                }
+              }
+              ensureUnchanged(requested);
+              frames.writeEnd(null);
+            } finally {
+              copyBuffers.release(copyBuffer);
+            }
+          };
+      return ResponseEntity.ok()
+          .eTag(etag)
+          .contentType(MediaType.parseMediaType(FrameCodec.MEDIA_TYPE))
+          .body(body);
+    }
+
+    // The stored chunks may be compressed or encrypted by the client, so the length of what is sent
+    // is the sum of their stored sizes rather than the file size, known only if all are recorded
+    boolean whole = from == null && to == null;
+    long length = whole ? storedLength(file) : -1;
+    boolean sized = length >= 0;
+    HttpStatus status = HttpStatus.OK;
+    HttpHeaders headers = new HttpHeaders();
+    Iterator<Chunk> chunks = manifestService.iterateChunks(file, first, end);
+    long skip = 0;
+    long limit = sized ? length : Long.MAX_VALUE;
+    if (sized) {
+      headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+      headers.setContentLength(length);
+    }
+    List<HttpRange> ranges = List.of();
+    if (sized && range != null && (ifRange == null || ifRange.equals(etag))) {
+      try {
+        ranges = HttpRange.parseRanges(range);
+      } catch (IllegalArgumentException e) {
+        log.debug("Ignoring invalid range " + range);
+      }
+    }
+    // Several ranges would need a multipart response, the whole file is sent instead
+    if (ranges.size() == 1) {
+      long start;
+      long last;
+      try {
+        start = ranges.getFirst().getRangeStart(length);
+        last = ranges.getFirst().getRangeEnd(length);
+      } catch (IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+            .build();
+      }
+      // Skip the chunks before the range by their recorded sizes, without reading them
+      PeekingIterator<Chunk> rest = Iterators.peekingIterator(chunks);
+      long position = 0;
+      boolean located = true;
+      while (rest.hasNext()) {
+        Integer size = rest.peek().getSize();
+        if (size == null || size <= 0) {
+          located = false;
+          break;
+        }
+        if (position + size > start) {
+          break;
+        }
+        position += size;
+        rest.next();
+      }
+      if (located) {
+        status = HttpStatus.PARTIAL_CONTENT;
+        skip = start - position;
+        limit = last - start + 1;
+        chunks = rest;
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + last + "/" + length);
+        headers.setContentLength(limit);
+      } else {
+        chunks = manifestService.iterateChunks(file, first, end);
+      }
+    }
+
+    Iterator<String> hashes = limitChunks(chunks, skip + limit);
+    long skipped = skip;
+    long sent = limit;
+    StreamingResponseBody body =
+        outputStream -> {
+          byte[] copyBuffer = copyBuffers.acquire();
+          try (BufferedOutputStream buffer =
+                  RateLimiter.newInstance(fetchRate).stream(outputStream);
+              ChunkPrefetcher prefetcher =
+                  new ChunkPrefetcher(
+                      hashes, storageService::openObject, fetchWindow, fetchWindowBytes)) {
+            long toSkip = skipped;
+            long remaining = sent;
+            while (remaining > 0 && prefetcher.hasNext()) {
+              try (ObjectStream chunk = prefetcher.next()) {
+                long available = chunk.getLength();
+                if (toSkip > 0) {
+                  long n = Math.min(toSkip, available);
+                  IOUtils.skipFully(chunk.getStream(), n);
+                  toSkip -= n;
+                  available -= n;
+                }
+                long n = Math.min(available, remaining);
+                if (n == remaining || !prefetcher.hasNext()) {
+                  // Nothing of the last piece is sent unless the file is still the same version
+                  ensureUnchanged(requested);
+                }
+                if (IOUtils.copyLarge(chunk.getStream(), buffer, 0, n, copyBuffer) != n) {
+                  throw new EOFException("Chunk ended early");
+                }
+                remaining -= n;
+              }
+            }
+            if (sent != Long.MAX_VALUE && remaining > 0) {
+              throw new EOFException("Content of " + requested.getFilepath() + " ended early");
+            }
+          } finally {
+            copyBuffers.release(copyBuffer);
+          }
+        };
+    return ResponseEntity.status(status)
+        .headers(headers)
+        .eTag(etag)
         .contentType(MediaType.APPLICATION_OCTET_STREAM)
         .body(body);
   }
+
+  /** Sum of the stored sizes of the chunks of a file, -1 if the size of one is unknown. */
+  private long storedLength(File file) {
+    long length = 0;
+    Iterator<Chunk> chunks = manifestService.iterateChunks(file, 0, file.getChunkCount());
+    while (chunks.hasNext()) {
+      Integer size = chunks.next().getSize();
+      if (size == null) {
+        return -1;
+      }
+      length += size;
+    }
+    return length;
+  }
+
+  /** Hashes of the chunks up to the one holding the byte at the limit, if their sizes are known. */
+  private static Iterator<String> limitChunks(Iterator<Chunk> chunks, long limit) {
+    return new AbstractIterator<>() {
+      private long position;
+
+      @Override
+      protected String computeNext() {
+        if (position >= limit || !chunks.hasNext()) {
+          return endOfData();
+        }
+        Chunk chunk = chunks.next();
+        if (chunk.getSize() != null) {
+          position += chunk.getSize();
+        }
+        return chunk.getHash();
+      }
+    };
+  }
+
+  /** Fails the download if the file was changed since the download started. */
+  private void ensureUnchanged(File file) throws IOException {
+    File latest = fileService.getById(file.getId());
+    if (latest == null || !Objects.equals(latest.getVersion(), file.getVersion())) {
+      throw new IOException("File " + file.getFilepath() + " changed while sent");
+    }
+  }
 }
@@ -2,25 +2,35 @@ package com.hhst.xsync.controller;
 
 import com.hhst.xsync.dto.Response;
 import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.ManifestEdit;
 import com.hhst.xsync.entity.Metadata;
 import com.hhst.xsync.service.*;
+import com.hhst.xsync.utils.FrameCodec;
 import com.hhst.xsync.utils.JwtUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.constraints.NotEmpty;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Objects;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/metadata")
 public class MetadataController {
 
+  /** Length of the SHA-256 chunk hashes, announced by manifests of files without chunks. */
+  private static final int HASH_LENGTH = 32;
+
   @Autowired private IFileService fileService;
-  @Autowired private IFcService fcService;
+  @Autowired private IManifestService manifestService;
   @Autowired private JwtUtils jwtUtils;
 
   /**
@@ -38,22 +48,95 @@ public class MetadataController {
     if (subject == null) {
       return Response.build(HttpStatus.UNAUTHORIZED, "Authorization header is invalid");
     }
-    // get metadata from database
+    Metadata metadata = getMetadata(subject, URLDecoder.decode(path, StandardCharsets.UTF_8));
+    if (metadata == null) {
+      return Response.build(HttpStatus.NOT_FOUND, "File not found");
+    }
+    return Response.build(HttpStatus.OK, "Metadata fetched", metadata);
+  }
+
+  /**
+   * Fetch metadata for a given filepath as a framed manifest, for clients accepting {@link
+   * FrameCodec#MEDIA_TYPE}. Chunk hashes are sent as raw bytes instead of a JSON array of hex
+   * strings, and as a diff if the client holds a version the manifest history reaches back to.
+   *
+   * @param path The filepath for which to fetch metadata.
+   * @param since The manifest version held by the client, if any.
+   * @return the framed manifest, or an empty body with the error status
+   */
+  @GetMapping(value = "/fetch", produces = FrameCodec.MEDIA_TYPE)
+  public ResponseEntity<StreamingResponseBody> fetchManifest(
+      @RequestParam("path") @NotEmpty String path,
+      @RequestParam(value = "since", required = false) Long since,
+      HttpServletRequest request) {
+    String subject = jwtUtils.extractUserSubject(request).orElse(null);
+    if (subject == null) {
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+    }
     path = URLDecoder.decode(path, StandardCharsets.UTF_8);
     File file = fileService.getFileWithCache(subject, path);
     if (file == null) {
-      return Response.build(HttpStatus.NOT_FOUND, "File not found");
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     }
-    List<String> hashes = fcService.getChunkHashes(file);
-    Metadata metadata =
-        new Metadata(
-            path,
-            file.getSize(),
-            file.getHash(),
-            file.getLastModifiedTime(),
-            file.getChunkCount(),
-            hashes); // Replace with actual service call
-    return Response.build(HttpStatus.OK, "Metadata fetched", metadata);
+    List<ManifestEdit> edits = since == null ? null : manifestService.getEdits(file, since);
+    Metadata metadata = toMetadata(file, null);
+    if (edits != null) {
+      metadata.setBaseVersion(since);
+      metadata.setEdits(edits);
+    }
+    // Full manifests are streamed from the database page by page, the trailer is only written if
+    // no upload changed the file meanwhile, so clients never accept a mix of two versions
+    StreamingResponseBody body =
+        outputStream -> {
+          BufferedOutputStream buffer = new BufferedOutputStream(outputStream);
+          FrameCodec.Writer frames = new FrameCodec.Writer(buffer, hashLength(metadata));
+          frames.writeHeader();
+          if (edits != null) {
+            frames.writeManifest(metadata);
+          } else {
+            frames.writeManifest(
+                metadata, file.getChunkCount(), manifestService.iterateChunkHashes(file));
+            File latest = fileService.getById(file.getId());
+            if (latest == null || !Objects.equals(latest.getVersion(), file.getVersion())) {
+              throw new IOException("Manifest of " + file.getFilepath() + " changed while sent");
+            }
+          }
+          frames.writeEnd(null);
+        };
+    return ResponseEntity.ok().body(body);
+  }
+
+  private Metadata getMetadata(String subject, String path) {
+    // get metadata from database
+    File file = fileService.getFileWithCache(subject, path);
+    if (file == null) {
+      return null;
+    }
+    return toMetadata(file, manifestService.getChunkHashes(file));
+  }
+
+  private static Metadata toMetadata(File file, List<String> hashes) {
+    Metadata metadata = new Metadata();
+    metadata.setFilepath(file.getFilepath());
+    metadata.setFilesize(file.getSize());
+    metadata.setFileHash(file.getHash());
+    metadata.setLastModifiedTime(file.getLastModifiedTime());
+    metadata.setChunkCount(file.getChunkCount());
+    metadata.setChunkHashes(hashes);
+    metadata.setVersion(file.getVersion());
+    return metadata;
+  }
+
+  /** Length of the chunk hashes of a diff, taken from its first hash. */
+  private static int hashLength(Metadata metadata) {
+    if (metadata.getEdits() == null) {
+      return HASH_LENGTH;
+    }
+    return metadata.getEdits().stream()
+        .flatMap(edit -> edit.getHashes().stream())
+        .findFirst()
+        .map(hash -> hash.length() / 2)
+        .orElse(HASH_LENGTH);
   }
 
   @Transactional
@@ -0,0 +1,56 @@
+package com.hhst.xsync.controller;
+
+import com.hhst.xsync.dto.Response;
+import com.hhst.xsync.service.impl.CachingStorageService;
+import com.hhst.xsync.service.impl.DiskCacheStorageService;
+import com.hhst.xsync.utils.VirtualThreadExecutor;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/storage")
+public class StorageController {
+
+  @Autowired private ObjectProvider<CachingStorageService> cachingStorageService;
+  @Autowired private ObjectProvider<DiskCacheStorageService> diskCacheStorageService;
+
+  @Autowired
+  @Qualifier("minioExecutor")
+  private Executor minioExecutor;
+
+  /**
+   * Report the hit and miss counters of the storage caches and the load of the storage
+   * executors, admins only.
+   *
+   * @return response containing the statistics of every enabled cache and of the executors
+   */
+  @GetMapping("/stats")
+  public Response stats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    cachingStorageService.ifAvailable(cache -> stats.put("memory", cache.getStats()));
+    diskCacheStorageService.ifAvailable(cache -> stats.put("disk", cache.getStats()));
+    stats.put("minio", executorStats(minioExecutor));
+    return Response.build(HttpStatus.OK, "Storage statistics", stats);
+  }
+
+  private static Map<String, Object> executorStats(Executor executor) {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    if (executor instanceof VirtualThreadExecutor virtual) {
+      stats.put("active", virtual.getActiveCount());
+      stats.put("waiting", virtual.getWaitingCount());
+    } else if (executor instanceof ThreadPoolTaskExecutor pool) {
+      stats.put("active", pool.getActiveCount());
+      stats.put("waiting", pool.getQueueSize());
+    }
+    return stats;
+  }
+}
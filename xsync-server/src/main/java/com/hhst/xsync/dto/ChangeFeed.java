@@ -0,0 +1,16 @@
+package com.hhst.xsync.dto;
+
+import com.hhst.xsync.entity.Change;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** A page of the change log, with the cursor to resume from. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeFeed {
+  private Long cursor;
+  private List<Change> changes;
+}
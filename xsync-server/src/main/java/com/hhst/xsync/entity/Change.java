@@ -0,0 +1,50 @@
+package com.hhst.xsync.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.*;
+
+/** a change of a file in the per-user change log */
+@Getter
+@Setter
+@ToString
+@TableName("change_log")
+@AllArgsConstructor
+@NoArgsConstructor
+public class Change implements Serializable {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  public static final String UPSERT = "UPSERT";
+  public static final String DELETE = "DELETE";
+
+  /** user email */
+  @TableField("email")
+  private String email;
+
+  /** monotonic sequence number of the change for given user, used as cursor */
+  @TableField("seq")
+  private Long seq;
+
+  /** filepath for given user */
+  @TableField("filepath")
+  private String filepath;
+
+  /** UPSERT or DELETE */
+  @TableField("operation")
+  private String operation;
+
+  /** last modified time of the file after the change(timestamp), null for deletes */
+  @TableField("lastModifiedTime")
+  private Long lastModifiedTime;
+
+  /** manifest version of the file after the change, null for deletes */
+  @TableField("version")
+  private Long version;
+
+  /** time of the change(timestamp) */
+  @TableField("time")
+  private Long time;
+}
@@ -34,10 +34,7 @@ public class Fc implements Serializable {
   @TableField("chunkHash")
   private String chunkHash;
 
-  /**
-   * The chunk's index in the file reflects its first occurrence, rather than its actual position in
-   * the sequence
-   */
+  /** position of the chunk in the file, a chunk occurring repeatedly has one row per position */
   @TableField("index")
   private Integer index;
 }
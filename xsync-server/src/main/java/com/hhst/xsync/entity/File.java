@@ -60,11 +60,17 @@ public class File implements Serializable {
      * file size(byte)
      */
     @TableField("size")
-    private Integer size;
+    private Long size;
 
     /**
      * file hash hex string
      */
     @TableField("hash")
     private String hash;
+
+    /**
+     * manifest version, incremented on every upload
+     */
+    @TableField("version")
+    private Long version;
 }
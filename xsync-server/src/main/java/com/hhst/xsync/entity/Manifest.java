@@ -0,0 +1,40 @@
+package com.hhst.xsync.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.*;
+
+/**
+ * chunk hashes of a file stored as one value
+ *
+ * @author hhst
+ * @since 2025-05-05
+ */
+@Getter
+@Setter
+@ToString(exclude = "hashes")
+@TableName("manifest")
+@AllArgsConstructor
+@NoArgsConstructor
+public class Manifest implements Serializable {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  @TableId("fileId")
+  private Long fileId;
+
+  /** manifest version of the hashes */
+  @TableField("version")
+  private Long version;
+
+  /** number of chunks */
+  @TableField("chunkCount")
+  private Integer chunkCount;
+
+  /** chunk hashes in file order, encoded by FrameCodec.encodeHashes */
+  @TableField("hashes")
+  private byte[] hashes;
+}
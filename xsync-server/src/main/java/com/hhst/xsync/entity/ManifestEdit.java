@@ -0,0 +1,19 @@
+package com.hhst.xsync.entity;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Replacement of the chunk hashes at positions [start, end) of a manifest. Edits of a diff are
+ * applied in order, each against the manifest left by the previous one.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ManifestEdit {
+  private Integer start;
+  private Integer end;
+  private List<String> hashes;
+}
@@ -11,9 +11,18 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class Metadata {
   private String filepath;
-  private Integer filesize;
+  private Long filesize;
   private String fileHash;
   private Long lastModifiedTime;
   private Integer chunkCount;
   private List<String> chunkHashes;
+
+  /** Version of the manifest, incremented by every upload. */
+  private Long version;
+
+  /** Version the edits apply to, null unless the chunk hashes are sent as a diff. */
+  private Long baseVersion;
+
+  /** Edits turning the manifest of the base version into this one, instead of chunk hashes. */
+  private List<ManifestEdit> edits;
 }
@@ -0,0 +1,45 @@
+package com.hhst.xsync.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.*;
+
+/**
+ * object of the storage holding many chunks back to back
+ *
+ * @author hhst
+ * @since 2025-05-05
+ */
+@Getter
+@Setter
+@ToString
+@TableName("pack")
+@AllArgsConstructor
+@NoArgsConstructor
+public class Pack implements Serializable {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  @TableId(value = "id", type = IdType.AUTO)
+  private Long id;
+
+  /** object name of the pack */
+  @TableField("name")
+  private String name;
+
+  /** pack size(byte) */
+  @TableField("size")
+  private Long size;
+
+  /** bytes of the pack still referenced by an entry */
+  @TableField("liveSize")
+  private Long liveSize;
+
+  /** creation time of the pack(timestamp) */
+  @TableField("createdAt")
+  private Long createdAt;
+}
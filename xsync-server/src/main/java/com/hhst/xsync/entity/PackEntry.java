@@ -0,0 +1,44 @@
+package com.hhst.xsync.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.*;
+
+/**
+ * location of a chunk inside a pack
+ *
+ * @author hhst
+ * @since 2025-05-05
+ */
+@Getter
+@Setter
+@ToString
+@TableName("pack_entry")
+@AllArgsConstructor
+@NoArgsConstructor
+public class PackEntry implements Serializable {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  /** hash string of the chunk */
+  @TableId("hash")
+  private String hash;
+
+  @TableField("packId")
+  private Long packId;
+
+  /** position of the chunk in the pack */
+  @TableField("`offset`")
+  private Long offset;
+
+  /** chunk size(byte) */
+  @TableField("`length`")
+  private Integer length;
+
+  /** object name of the pack, only set by queries joining the pack */
+  @TableField(exist = false)
+  private String packName;
+}
@@ -0,0 +1,45 @@
+package com.hhst.xsync.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hhst.xsync.entity.Change;
+import java.util.List;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Select;
+
+@Mapper
+public interface ChangeMapper extends BaseMapper<Change> {
+
+  /**
+   * Increment the change sequence of the user. The row stays locked until the transaction ends,
+   * so changes of the same user commit in sequence order.
+   */
+  @Insert(
+      """
+      insert into change_cursor(email, seq) values (#{email}, LAST_INSERT_ID(1))
+      on duplicate key update seq = LAST_INSERT_ID(seq + 1)
+      """)
+  void nextSeq(String email);
+
+  @Select("select LAST_INSERT_ID()")
+  Long lastInsertSeq();
+
+  @Select("select seq from change_cursor where email = #{email}")
+  Long latestSeq(String email);
+
+  @Insert(
+      """
+      insert into change_log(email, seq, filepath, operation, lastModifiedTime, version, time)
+      values (#{email}, #{seq}, #{filepath}, #{operation}, #{lastModifiedTime}, #{version}, #{time})
+      """)
+  void insertChange(Change change);
+
+  @Select(
+      """
+      select * from change_log
+      where email = #{email} and seq > #{cursor}
+      order by seq
+      limit #{limit}
+      """)
+  List<Change> listSince(String email, Long cursor, Integer limit);
+}
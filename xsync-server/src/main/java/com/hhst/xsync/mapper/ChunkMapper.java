@@ -2,19 +2,53 @@ package com.hhst.xsync.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.hhst.xsync.entity.Chunk;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 @Mapper
 public interface ChunkMapper extends BaseMapper<Chunk> {
 
+  /**
+   * Inserts or updates the chunks with one statement, callers bound the size of the list.
+   *
+   * @param now the time the chunks were written, protecting them from collection
+   */
+  void upsertBatch(@Param("list") List<Chunk> chunks, Long now);
+
+  /** Marks an existing chunk as recently used, returns 0 if there is no such chunk. */
+  @Update("update chunk set updatedAt = greatest(updatedAt, #{now}) where hash = #{hash}")
+  int touch(String hash, Long now);
+
+  /**
+   * Adds a number to the reference count of every chunk, callers bound the size of the map.
+   *
+   * @param deltas the number to add by chunk hash
+   */
+  void addReferenceCounts(@Param("deltas") Map<String, Integer> deltas, Long now);
+
+  /** Returns the hashes and sizes of those of the chunks that exist. */
+  List<Chunk> listSizes(@Param("hashes") Collection<String> hashes);
+
+  /**
+   * Locks a page of unreferenced chunks unused since the cutoff, skipping chunks locked by
+   * concurrent writers.
+   */
   @Select(
       """
-    SELECT c.*
-    FROM chunk c
-    LEFT JOIN file f ON c.hash = f.hash
-    WHERE f.hash IS NULL;
+    select hash from chunk
+    where refCount <= 0 and updatedAt < #{cutoff}
+    order by refCount, updatedAt
+    limit #{limit}
+    for update skip locked
     """)
-  List<Chunk> getIsolatedChunks();
+  List<String> lockCollectable(Long cutoff, Integer limit);
+
+  /** Lists chunk hashes in order after the given one, for paging through the whole table. */
+  @Select("select hash from chunk where hash > #{after} order by hash limit #{limit}")
+  List<String> listHashes(String after, Integer limit);
 }
@@ -20,6 +20,19 @@ public interface FcMapper extends BaseMapper<Fc> {
 
   void upsertBatch(@Param("list") List<Fc> fcs, Long fileId);
 
+  /** Moves the chunks at and after a position by the offset, keeping positions unique. */
+  void shift(Long fileId, Integer from, Integer offset);
+
+  @Delete(
+      """
+    delete from fc
+    where fileId = #{fileId} and `index` >= #{from} and `index` < #{to}
+    """)
+  void deleteRange(Long fileId, Integer from, Integer to);
+
+  @Delete("delete from fc where fileId = #{fileId}")
+  void deleteAll(Long fileId);
+
   @Delete(
       """
     delete from fc
@@ -37,6 +50,23 @@ public interface FcMapper extends BaseMapper<Fc> {
     """)
   List<String> getChunkHashes(File file);
 
+  @Select(
+      """
+    select chunkHash from fc
+    where fileId = #{fileId} and `index` >= #{from} and `index` < #{to}
+    order by `index`
+    """)
+  List<String> listChunkHashes(Long fileId, Integer from, Integer to);
+
+  @Select(
+      """
+    select fc.chunkHash as hash, chunk.size from fc
+    left join chunk on chunk.hash = fc.chunkHash
+    where fc.fileId = #{fileId} and fc.`index` >= #{from} and fc.`index` < #{to}
+    order by fc.`index`
+    """)
+  List<Chunk> listChunks(Long fileId, Integer from, Integer to);
+
   @Select(
       """
    select chunk.hash, chunk.size
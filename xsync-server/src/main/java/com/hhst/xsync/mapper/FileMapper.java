@@ -5,23 +5,44 @@ import com.hhst.xsync.entity.File;
 import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 @Mapper
 public interface FileMapper extends BaseMapper<File> {
 
   @Insert(
           """
-          insert into file(filepath, email, lastModifiedTime, chunkCount, size, hash)
-          values(#{file.filepath}, #{file.email}, #{file.lastModifiedTime}, #{file.chunkCount}, #{file.size}, #{file.hash})
+          insert into file(filepath, email, lastModifiedTime, chunkCount, size, hash, version)
+          values(#{file.filepath}, #{file.email}, #{file.lastModifiedTime}, #{file.chunkCount}, #{file.size}, #{file.hash}, 1)
           on duplicate key update
               lastModifiedTime = values(lastModifiedTime),
               chunkCount = values(chunkCount),
-              size = size + #{delta},
+              size = values(size),
               hash = values(hash),
+              version = version + 1,
               id = LAST_INSERT_ID(id)
           """
   )
   @Options(useGeneratedKeys = true, keyColumn = "id", keyProperty = "file.id")
-  void upsert(File file, Integer delta);
+  void upsert(@Param("file") File file);
+
+  /** Updates the file only if its manifest is still at the base version, returns affected rows. */
+  @Update(
+          """
+          update file set
+              lastModifiedTime = #{file.lastModifiedTime},
+              chunkCount = #{file.chunkCount},
+              size = #{file.size},
+              hash = #{file.hash},
+              version = version + 1
+          where id = #{file.id} and version = #{baseVersion}
+          """
+  )
+  int updateVersioned(File file, Long baseVersion);
+
+  @Select("select version from file where id = #{id}")
+  Long getVersion(Long id);
 
 }
@@ -0,0 +1,30 @@
+package com.hhst.xsync.mapper;
+
+import java.util.List;
+import org.apache.ibatis.annotations.*;
+
+@Mapper
+public interface ManifestHistoryMapper {
+
+  @Insert(
+      """
+    insert into manifest_history(fileId, version, edits)
+    values (#{fileId}, #{version}, #{edits})
+    """)
+  void insert(Long fileId, Long version, byte[] edits);
+
+  @Select(
+      """
+    select edits from manifest_history
+    where fileId = #{fileId} and version > #{since}
+    order by version
+    """)
+  List<byte[]> listSince(Long fileId, Long since);
+
+  @Delete(
+      """
+    delete from manifest_history
+    where fileId = #{fileId} and version <= #{version}
+    """)
+  void deleteUpTo(Long fileId, Long version);
+}
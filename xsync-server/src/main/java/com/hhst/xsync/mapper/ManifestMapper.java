@@ -0,0 +1,32 @@
+package com.hhst.xsync.mapper;
+
+import com.hhst.xsync.entity.Manifest;
+import org.apache.ibatis.annotations.*;
+
+@Mapper
+public interface ManifestMapper {
+
+  @Select("select fileId, version, chunkCount, hashes from manifest where fileId = #{fileId}")
+  Manifest select(Long fileId);
+
+  /** Reads the manifest and locks its row until the transaction ends. */
+  @Select(
+      """
+    select fileId, version, chunkCount, hashes from manifest
+    where fileId = #{fileId}
+    for update
+    """)
+  Manifest selectForUpdate(Long fileId);
+
+  @Insert(
+      """
+    insert into manifest(fileId, version, chunkCount, hashes)
+    values (#{fileId}, #{version}, #{chunkCount}, #{hashes})
+    on duplicate key update
+        version = values(version), chunkCount = values(chunkCount), hashes = values(hashes)
+    """)
+  void upsert(Manifest manifest);
+
+  @Delete("delete from manifest where fileId = #{fileId}")
+  void delete(Long fileId);
+}
@@ -0,0 +1,72 @@
+package com.hhst.xsync.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hhst.xsync.entity.Pack;
+import com.hhst.xsync.entity.PackEntry;
+import java.util.Collection;
+import java.util.List;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+@Mapper
+public interface PackMapper extends BaseMapper<Pack> {
+
+  /** Indexes the chunks of a pack, chunks already indexed in another pack keep their entry. */
+  void insertEntries(@Param("list") List<PackEntry> entries, Long packId);
+
+  @Select(
+      """
+    select e.hash, e.packId, e.`offset`, e.`length`, p.name as packName
+    from pack_entry e join pack p on p.id = e.packId
+    where e.hash = #{hash}
+    """)
+  PackEntry findEntry(String hash);
+
+  @Select(
+      """
+    select hash, packId, `offset`, `length` from pack_entry
+    where packId = #{packId}
+    order by `offset`
+    """)
+  List<PackEntry> listEntries(Long packId);
+
+  /** Returns those of the hashes stored in a pack. */
+  List<String> listPacked(@Param("hashes") Collection<String> hashes);
+
+  /** Removes the entries of the chunks and subtracts their sizes from the live size of packs. */
+  void releaseEntries(@Param("hashes") Collection<String> hashes);
+
+  void deleteEntries(@Param("hashes") Collection<String> hashes);
+
+  /** Points entries still in the old pack to their new offsets in the new pack. */
+  void moveEntries(@Param("list") List<PackEntry> entries, Long from, Long to);
+
+  @Update(
+      """
+    update pack set liveSize = (
+        select coalesce(sum(`length`), 0) from pack_entry where packId = #{id}
+    )
+    where id = #{id}
+    """)
+  void recomputeLiveSize(Long id);
+
+  @Select(
+      """
+    select * from pack
+    where liveSize < size * #{ratio}
+    order by liveSize / size
+    limit #{limit}
+    """)
+  List<Pack> listSparse(Double ratio, Integer limit);
+
+  /** Deletes a pack no entry points to anymore, returns 0 otherwise. */
+  @Delete(
+      """
+    delete from pack
+    where id = #{id} and not exists (select 1 from pack_entry where packId = #{id})
+    """)
+  int deleteIfEmpty(Long id);
+}
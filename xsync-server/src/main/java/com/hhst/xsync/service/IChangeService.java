@@ -0,0 +1,25 @@
+package com.hhst.xsync.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hhst.xsync.entity.Change;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+public interface IChangeService extends IService<Change> {
+
+  Long record(
+      String email, String filepath, String operation, Long lastModifiedTime, Long version);
+
+  List<Change> listSince(String email, Long cursor, Integer limit);
+
+  Long latest(String email);
+
+  /**
+   * Listen to committed changes of a user.
+   *
+   * @param email user email
+   * @param listener called with the sequence number of every committed change
+   * @return a handle removing the listener
+   */
+  Runnable subscribe(String email, LongConsumer listener);
+}
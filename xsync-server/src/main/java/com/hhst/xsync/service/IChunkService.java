@@ -8,8 +8,10 @@ public interface IChunkService extends IService<Chunk> {
 
   Integer upsert(Chunk chunk);
 
-  Integer upsertBatch(List<Chunk> chunks);
-
-  List<Chunk> getIsolatedChunks();
-
+  /**
+   * Insert or update chunks.
+   *
+   * @param chunks the chunks
+   */
+  void upsertBatch(List<Chunk> chunks);
 }
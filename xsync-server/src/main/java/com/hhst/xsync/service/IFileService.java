@@ -1,10 +1,35 @@
 package com.hhst.xsync.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hhst.xsync.entity.Chunk;
 import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.Metadata;
+import java.util.List;
 
 public interface IFileService extends IService<File> {
-  void upsert(File file, Integer delta);
+  void upsert(File file);
+
+  /**
+   * Update a file whose manifest is sent as a diff, only if it is still at the base version.
+   *
+   * @param file the file with its id, its version is set on success
+   * @param baseVersion the version the diff applies to
+   * @return false if the file was changed concurrently
+   */
+  Boolean update(File file, Long baseVersion);
+
+  /**
+   * Record an uploaded version in one transaction: its chunks, the file and its manifest, sent in
+   * full or as a diff against the base version. The chunks are stored already.
+   *
+   * @param file the file, with its id if the manifest is a diff, its version is set on success
+   * @param chunks the uploaded chunks
+   * @param meta the uploaded manifest
+   * @param baseCount the number of chunks of the base version, only for a diff
+   * @return false if the file was changed concurrently
+   */
+  Boolean commitUpload(File file, List<Chunk> chunks, Metadata meta, Integer baseCount);
+
   File getFileWithCache(String email, String path);
   Boolean deleteFileWithCache(String email, String path);
 }
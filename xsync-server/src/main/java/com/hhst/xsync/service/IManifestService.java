@@ -0,0 +1,87 @@
+package com.hhst.xsync.service;
+
+import com.hhst.xsync.entity.Chunk;
+import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.ManifestEdit;
+import java.util.Iterator;
+import java.util.List;
+
+/** Stores the ordered chunk hashes of every file, along with the edits of recent versions. */
+public interface IManifestService {
+
+  List<String> getChunkHashes(File file);
+
+  /**
+   * Iterate over the chunk hashes of a file, loading them in pages so that manifests of millions
+   * of chunks are never held in memory at once. Pages are read when needed, without isolation from
+   * concurrent uploads, so callers must check that the version did not change meanwhile.
+   *
+   * @param file the file
+   * @return the chunk hashes in file order
+   */
+  Iterator<String> iterateChunkHashes(File file);
+
+  /**
+   * Iterate over a range of the chunks of a file with their sizes, paged like {@link
+   * #iterateChunkHashes(File)}. The size is null for a chunk whose size was never recorded.
+   *
+   * @param file the file
+   * @param from the position of the first chunk
+   * @param to the position after the last chunk
+   * @return the chunks in file order
+   */
+  Iterator<Chunk> iterateChunks(File file, int from, int to);
+
+  /**
+   * Replace the whole manifest of a file.
+   *
+   * @param file the file, already at its new version
+   * @param chunkHashes the chunk hashes in file order
+   */
+  void write(File file, List<String> chunkHashes);
+
+  /**
+   * Apply edits to the manifest of a file, only touching the edited positions.
+   *
+   * @param file the file, already at its new version
+   * @param edits the edits against the previous version
+   * @param baseCount the number of chunks of the previous version
+   */
+  void apply(File file, List<ManifestEdit> edits, Integer baseCount);
+
+  /**
+   * Remove the manifest of a file that is about to be deleted, releasing its chunks.
+   *
+   * @param file the file
+   */
+  void delete(File file);
+
+  /**
+   * Get the edits turning an older version of the manifest into the current one.
+   *
+   * @param file the file
+   * @param since the version held by the client
+   * @return the edits in order, or null if the history does not reach back to that version
+   */
+  List<ManifestEdit> getEdits(File file, Long since);
+
+  /**
+   * Compute the number of chunks after applying edits, validating their ranges.
+   *
+   * @param edits the edits
+   * @param baseCount the number of chunks before the edits
+   * @return the number of chunks after the edits
+   * @throws IllegalArgumentException if an edit lies outside the manifest
+   */
+  static int resultingCount(List<ManifestEdit> edits, int baseCount) {
+    int count = baseCount;
+    for (ManifestEdit edit : edits) {
+      if (edit.getStart() < 0 || edit.getStart() > edit.getEnd() || edit.getEnd() > count) {
+        throw new IllegalArgumentException(
+            "Edit " + edit.getStart() + ".." + edit.getEnd() + " outside of " + count + " chunks");
+      }
+      count += edit.getHashes().size() - (edit.getEnd() - edit.getStart());
+    }
+    return count;
+  }
+}
@@ -1,6 +1,7 @@
 package com.hhst.xsync.service;
 
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -9,6 +10,36 @@ public interface ObjectStorageService {
 
   CompletableFuture<byte[]> getObject(String name);
 
+  /**
+   * Reads a range of an object. Backends able to serve ranged reads override this, the default
+   * reads the whole object.
+   *
+   * @param offset position of the first byte to read
+   * @param length number of bytes to read
+   */
+  default CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return getObject(name)
+        .thenApply(data -> Arrays.copyOfRange(data, (int) offset, (int) offset + length));
+  }
+
+  /**
+   * Opens an object for reading, completing once its length is known. Backends able to stream an
+   * object override this, the default reads the whole object.
+   */
+  default CompletableFuture<ObjectStream> openObject(String name) {
+    return getObject(name).thenApply(ObjectStream::of);
+  }
+
+  /**
+   * Opens a range of an object for reading.
+   *
+   * @param offset position of the first byte to read
+   * @param length number of bytes to read
+   */
+  default CompletableFuture<ObjectStream> openObject(String name, long offset, int length) {
+    return getObject(name, offset, length).thenApply(ObjectStream::of);
+  }
+
   CompletableFuture<Void> removeObject(String name);
 
   CompletableFuture<Void> removeObjects(List<String> names);
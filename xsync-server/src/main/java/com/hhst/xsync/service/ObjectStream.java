@@ -0,0 +1,39 @@
+package com.hhst.xsync.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Content of an object opened for reading, to be copied to its destination without holding all of
+ * it in memory. The stream must be closed, which releases the connection it is read from.
+ */
+@Getter
+@AllArgsConstructor
+public class ObjectStream implements Closeable {
+
+  private final InputStream stream;
+
+  /** Number of bytes the stream holds. */
+  private final long length;
+
+  /** Wraps content already in memory. */
+  public static ObjectStream of(byte[] data) {
+    return new ObjectStream(new ByteArrayInputStream(data), data.length);
+  }
+
+  /** Reads the rest of the stream into memory and closes it. */
+  public byte[] readAll() throws IOException {
+    try (InputStream in = stream) {
+      return in.readNBytes((int) length);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+}
@@ -0,0 +1,300 @@
+package com.hhst.xsync.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.ManifestEdit;
+import com.hhst.xsync.mapper.ChunkMapper;
+import com.hhst.xsync.mapper.FileMapper;
+import com.hhst.xsync.mapper.ManifestHistoryMapper;
+import com.hhst.xsync.service.IManifestService;
+import com.hhst.xsync.utils.FrameCodec;
+import com.hhst.xsync.utils.HashList;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Parts shared by the manifest stores: the history of recent edits, paged iteration and a cache of
+ * whole manifests. Cached manifests are packed and weighed by their bytes, and an entry serves
+ * only the version it was loaded or written for. Stores write the new version through to the cache
+ * and evict deleted files once their transaction commits, so a rolled back upload never leaves the
+ * hashes of a version that does not exist.
+ */
+public abstract class AbstractManifestService implements IManifestService {
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  /** Positions read per query when iterating over a manifest. */
+  protected static final int PAGE_SIZE = 10000;
+
+  /** Chunks per reference count statement, bounding the statement size. */
+  private static final int REFERENCE_SLICE_SIZE = 1000;
+
+  /** Upper bound of the bytes of one chunk hash, for sizing a manifest before loading it. */
+  private static final int MAX_HASH_LENGTH = 64;
+
+  @Autowired private ManifestHistoryMapper historyMapper;
+  @Autowired private FileMapper fileMapper;
+  @Autowired protected ChunkMapper chunkMapper;
+
+  @Value("${xsync.manifest.history}")
+  private long history;
+
+  @Value("${xsync.manifest.cache-bytes}")
+  private long cacheBytes;
+
+  private Cache<Long, CachedManifest> cache;
+
+  @PostConstruct
+  public void init() {
+    cache =
+        Caffeine.newBuilder()
+            .maximumWeight(cacheBytes)
+            .<Long, CachedManifest>weigher((id, manifest) -> manifest.hashes.toBytes().length)
+            .build();
+  }
+
+  /** Reads the whole manifest of the current version of a file from the store. */
+  protected abstract List<String> loadChunkHashes(File file);
+
+  /** Iterates over the manifest of a file without holding all of it, see {@link #paged}. */
+  protected abstract Iterator<String> pageChunkHashes(File file);
+
+  @Override
+  public List<String> getChunkHashes(File file) {
+    HashList cached = cached(file);
+    if (cached != null) {
+      return cached;
+    }
+    List<String> hashes = loadChunkHashes(file);
+    HashList packed;
+    try {
+      packed = HashList.of(hashes);
+    } catch (IllegalArgumentException e) {
+      return hashes;
+    }
+    // Kept only if no upload committed meanwhile, its hashes may have been read instead
+    if (Objects.equals(fileMapper.getVersion(file.getId()), file.getVersion())) {
+      put(file.getId(), file.getVersion(), packed);
+    }
+    return packed;
+  }
+
+  @Override
+  public Iterator<String> iterateChunkHashes(File file) {
+    HashList cached = cached(file);
+    if (cached != null) {
+      return cached.iterator();
+    }
+    if (isCacheable((long) file.getChunkCount() * MAX_HASH_LENGTH)) {
+      return getChunkHashes(file).iterator();
+    }
+    return pageChunkHashes(file);
+  }
+
+  @Override
+  public List<ManifestEdit> getEdits(File file, Long since) {
+    long behind = file.getVersion() - since;
+    if (behind < 0 || behind > history) {
+      return null;
+    }
+    List<byte[]> versions = historyMapper.listSince(file.getId(), since);
+    // Every version after a full rewrite has its row, a missing one means the gap is not bridged
+    if (versions.size() != behind) {
+      return null;
+    }
+    List<ManifestEdit> edits = new ArrayList<>();
+    for (byte[] version : versions) {
+      edits.addAll(FrameCodec.decodeEdits(version));
+    }
+    return edits;
+  }
+
+  /** Keeps the edits producing the current version of the file, dropping the oldest ones. */
+  protected void recordEdits(File file, List<ManifestEdit> edits) {
+    historyMapper.insert(file.getId(), file.getVersion(), FrameCodec.encodeEdits(edits));
+    historyMapper.deleteUpTo(file.getId(), file.getVersion() - history);
+  }
+
+  /** Drops the history of a file whose manifest was rewritten, edits cannot bridge a rewrite. */
+  protected void clearHistory(File file) {
+    historyMapper.deleteUpTo(file.getId(), file.getVersion());
+  }
+
+  /**
+   * Applies reference count changes with one update per changed chunk, in hash order, so that
+   * concurrent uploads sharing chunks lock their rows in the same order and cannot deadlock.
+   */
+  protected void addReferences(Map<String, Integer> deltas) {
+    deltas.values().removeIf(n -> n == 0);
+    long now = System.currentTimeMillis();
+    Map<String, Integer> slice = new TreeMap<>();
+    for (Map.Entry<String, Integer> delta : new TreeMap<>(deltas).entrySet()) {
+      slice.put(delta.getKey(), delta.getValue());
+      if (slice.size() == REFERENCE_SLICE_SIZE) {
+        chunkMapper.addReferenceCounts(slice, now);
+        slice = new TreeMap<>();
+      }
+    }
+    if (!slice.isEmpty()) {
+      chunkMapper.addReferenceCounts(slice, now);
+    }
+  }
+
+  /** Adds the occurrences of the hashes, times the sign, to the reference count changes. */
+  protected static void count(Map<String, Integer> deltas, List<String> hashes, int sign) {
+    for (String hash : hashes) {
+      deltas.merge(hash, sign, Integer::sum);
+    }
+  }
+
+  /** Caches the hashes of the current version of a file once the transaction commits. */
+  protected void cacheAfterCommit(File file, List<String> hashes) {
+    HashList packed;
+    try {
+      packed = HashList.of(hashes);
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    Long fileId = file.getId();
+    Long version = file.getVersion();
+    afterCommit(() -> put(fileId, version, packed));
+  }
+
+  /**
+   * Caches the result of edits once the transaction commits, if the previous version is cached.
+   * Otherwise the next read loads the new version from the store.
+   */
+  protected void cacheEditsAfterCommit(File file, List<ManifestEdit> edits) {
+    CachedManifest base = cache.getIfPresent(file.getId());
+    if (base == null || base.version != file.getVersion() - 1) {
+      return;
+    }
+    HashList hashes = base.hashes;
+    try {
+      for (ManifestEdit edit : edits) {
+        hashes = splice(hashes, edit);
+      }
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    cacheAfterCommit(file, hashes);
+  }
+
+  /** Evicts the manifest of a deleted file once the transaction commits. */
+  protected void evictAfterCommit(File file) {
+    Long fileId = file.getId();
+    afterCommit(() -> cache.invalidate(fileId));
+  }
+
+  /** Iterates over the items of a range of positions, querying them a page at a time. */
+  protected static <T> Iterator<T> paged(
+      int from, int to, BiFunction<Integer, Integer, List<T>> query) {
+    return new Iterator<>() {
+      private Iterator<T> page = Collections.emptyIterator();
+      private int next = from;
+
+      @Override
+      public boolean hasNext() {
+        while (!page.hasNext() && next < to) {
+          int end = (int) Math.min((long) next + PAGE_SIZE, to);
+          page = query.apply(next, end).iterator();
+          next = end;
+        }
+        return page.hasNext();
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return page.next();
+      }
+    };
+  }
+
+  /** Replaces the range of an edit with its hashes, in the raw form of the list. */
+  protected static HashList splice(HashList hashes, ManifestEdit edit) {
+    // An empty manifest takes the hash length of the first hashes written to it
+    int hashLength =
+        hashes.isEmpty() && !edit.getHashes().isEmpty()
+            ? edit.getHashes().getFirst().length() / 2
+            : hashes.getHashLength();
+    byte[] base = hashes.isEmpty() ? new byte[0] : hashes.toBytes();
+    int start = edit.getStart() * hashLength;
+    int end = edit.getEnd() * hashLength;
+    byte[] result = new byte[base.length - (end - start) + edit.getHashes().size() * hashLength];
+    System.arraycopy(base, 0, result, 0, start);
+    int position = start;
+    for (String hash : edit.getHashes()) {
+      byte[] bytes = HEX.parseHex(hash);
+      if (bytes.length != hashLength) {
+        throw new IllegalArgumentException("Invalid chunk hash: " + hash);
+      }
+      System.arraycopy(bytes, 0, result, position, hashLength);
+      position += hashLength;
+    }
+    System.arraycopy(base, end, result, position, base.length - end);
+    return new HashList(result, hashLength);
+  }
+
+  private HashList cached(File file) {
+    CachedManifest manifest = cache.getIfPresent(file.getId());
+    return manifest != null && manifest.version == file.getVersion() ? manifest.hashes : null;
+  }
+
+  /** Caches a version unless a later one is cached already. */
+  private void put(Long fileId, long version, HashList hashes) {
+    if (isCacheable(hashes.toBytes().length)) {
+      cache
+          .asMap()
+          .merge(
+              fileId,
+              new CachedManifest(version, hashes),
+              (old, added) -> added.version >= old.version ? added : old);
+    }
+  }
+
+  /** Manifests above an eighth of the cache are paged instead, not to evict most others. */
+  private boolean isCacheable(long bytes) {
+    return bytes <= cacheBytes / 8;
+  }
+
+  private static void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            action.run();
+          }
+        });
+  }
+
+  private static final class CachedManifest {
+    private final long version;
+    private final HashList hashes;
+
+    private CachedManifest(long version, HashList hashes) {
+      this.version = version;
+      this.hashes = hashes;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.hhst.xsync.service.impl;
+
+import com.hhst.xsync.entity.Chunk;
+import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.Manifest;
+import com.hhst.xsync.entity.ManifestEdit;
+import com.hhst.xsync.mapper.ManifestMapper;
+import com.hhst.xsync.service.IManifestService;
+import com.hhst.xsync.utils.FrameCodec;
+import com.hhst.xsync.utils.HashList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Manifest stored as a single row per file, holding the raw chunk hashes deflated into one value
+ * along with the version they belong to. Fetching or replacing a manifest reads or writes that row
+ * only, and edits are applied to the decoded hashes before writing them back. The reference counts
+ * of the chunks are adjusted by the difference between the old and the new hashes, so chunks whose
+ * number of occurrences did not change are not touched. Selected with {@code xsync.manifest.store:
+ * blob}, existing fc rows are not migrated.
+ */
+@Service
+@ConditionalOnProperty(name = "xsync.manifest.store", havingValue = "blob")
+public class BlobManifestServiceImpl extends AbstractManifestService {
+
+  /** Chunks per size statement, bounding the statement size. */
+  private static final int SLICE_SIZE = 1000;
+
+  @Autowired private ManifestMapper manifestMapper;
+
+  @Override
+  protected List<String> loadChunkHashes(File file) {
+    return decode(manifestMapper.select(file.getId()));
+  }
+
+  @Override
+  protected Iterator<String> pageChunkHashes(File file) {
+    // The decoded hashes are packed, the whole manifest is held rather than paged
+    return loadChunkHashes(file).iterator();
+  }
+
+  @Override
+  public Iterator<Chunk> iterateChunks(File file, int from, int to) {
+    List<String> hashes = getChunkHashes(file);
+    return paged(
+        Math.min(from, hashes.size()),
+        Math.min(to, hashes.size()),
+        (first, end) -> withSizes(hashes.subList(first, end)));
+  }
+
+  @Override
+  @Transactional
+  public void write(File file, List<String> chunkHashes) {
+    Map<String, Integer> deltas = new HashMap<>();
+    count(deltas, decode(manifestMapper.selectForUpdate(file.getId())), -1);
+    count(deltas, chunkHashes, 1);
+    store(file, FrameCodec.encodeHashes(chunkHashes), chunkHashes.size());
+    addReferences(deltas);
+    clearHistory(file);
+    cacheAfterCommit(file, chunkHashes);
+  }
+
+  @Override
+  @Transactional
+  public void apply(File file, List<ManifestEdit> edits, Integer baseCount) {
+    IManifestService.resultingCount(edits, baseCount);
+    HashList hashes = decode(manifestMapper.selectForUpdate(file.getId()));
+    if (hashes.size() != baseCount) {
+      throw new IllegalStateException(
+          "Manifest of file " + file.getId() + " holds " + hashes.size() + " chunks");
+    }
+    Map<String, Integer> deltas = new HashMap<>();
+    for (ManifestEdit edit : edits) {
+      count(deltas, hashes.subList(edit.getStart(), edit.getEnd()), -1);
+      count(deltas, edit.getHashes(), 1);
+      hashes = splice(hashes, edit);
+    }
+    store(file, FrameCodec.encodeHashes(hashes), hashes.size());
+    addReferences(deltas);
+    recordEdits(file, edits);
+    cacheAfterCommit(file, hashes);
+  }
+
+  @Override
+  @Transactional
+  public void delete(File file) {
+    evictAfterCommit(file);
+    Manifest manifest = manifestMapper.selectForUpdate(file.getId());
+    if (manifest == null) {
+      return;
+    }
+    Map<String, Integer> deltas = new HashMap<>();
+    count(deltas, decode(manifest), -1);
+    addReferences(deltas);
+    manifestMapper.delete(file.getId());
+  }
+
+  private void store(File file, byte[] hashes, int chunkCount) {
+    manifestMapper.upsert(new Manifest(file.getId(), file.getVersion(), chunkCount, hashes));
+  }
+
+  /** Pairs a page of chunk hashes with their sizes, null for a chunk without a row. */
+  private List<Chunk> withSizes(List<String> hashes) {
+    Map<String, Integer> sizes = new HashMap<>();
+    List<String> distinct = new ArrayList<>(new HashSet<>(hashes));
+    for (int from = 0; from < distinct.size(); from += SLICE_SIZE) {
+      List<String> slice = distinct.subList(from, Math.min(from + SLICE_SIZE, distinct.size()));
+      chunkMapper.listSizes(slice).forEach(chunk -> sizes.put(chunk.getHash(), chunk.getSize()));
+    }
+    List<Chunk> chunks = new ArrayList<>(hashes.size());
+    for (String hash : hashes) {
+      chunks.add(new Chunk(hash, sizes.get(hash)));
+    }
+    return chunks;
+  }
+
+  private static HashList decode(Manifest manifest) {
+    return manifest == null
+        ? new HashList(new byte[0], 1)
+        : FrameCodec.decodeHashes(manifest.getHashes());
+  }
+}
@@ -0,0 +1,115 @@
+package com.hhst.xsync.service.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.ObjectStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps recently read chunks in memory, bounded by their total size. Chunks are content addressed
+ * and never change, so an entry stays valid until the chunk is removed. The cache admits a chunk
+ * by its estimated frequency, so a restore reading many chunks once does not evict the chunks
+ * shared by many files, and concurrent reads of a missing chunk share one read of the storage.
+ */
+public class CachingStorageService implements ObjectStorageService {
+
+  /** Objects opened as streams are kept if at most this large, larger ones pass through. */
+  private static final int MAX_STREAMED_ENTRY = 1024 * 1024;
+
+  private final ObjectStorageService storage;
+  private final AsyncCache<String, byte[]> chunks;
+
+  /**
+   * @param storage the storage to read missing chunks from
+   * @param maxBytes the total size of the chunks to keep
+   */
+  public CachingStorageService(ObjectStorageService storage, long maxBytes) {
+    this.storage = storage;
+    this.chunks =
+        Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .<String, byte[]>weigher((name, data) -> data.length)
+            .recordStats()
+            .buildAsync();
+  }
+
+  @Override
+  public CompletableFuture<Void> putObject(String name, byte[] data) {
+    return storage.putObject(name, data);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name) {
+    // A failed read is not cached, the next read of the chunk tries the storage again
+    return chunks.get(name, (key, executor) -> storage.getObject(key));
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return storage.getObject(name, offset, length);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name) {
+    CompletableFuture<byte[]> cached = chunks.getIfPresent(name);
+    if (cached != null) {
+      return cached.thenApply(ObjectStream::of);
+    }
+    return storage
+        .openObject(name)
+        .thenApply(
+            stream -> {
+              if (stream.getLength() > MAX_STREAMED_ENTRY) {
+                return stream;
+              }
+              try {
+                byte[] data = stream.readAll();
+                chunks.put(name, CompletableFuture.completedFuture(data));
+                return ObjectStream.of(data);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name, long offset, int length) {
+    return storage.openObject(name, offset, length);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObject(String name) {
+    chunks.synchronous().invalidate(name);
+    return storage.removeObject(name);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObjects(List<String> names) {
+    chunks.synchronous().invalidateAll(names);
+    return storage.removeObjects(names);
+  }
+
+  /** Returns the hit and miss counters of the cache and the size of the chunks it holds. */
+  public Map<String, Object> getStats() {
+    CacheStats stats = chunks.synchronous().stats();
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("hits", stats.hitCount());
+    result.put("misses", stats.missCount());
+    result.put("hitRate", stats.hitRate());
+    result.put("loadFailures", stats.loadFailureCount());
+    result.put("evictions", stats.evictionCount());
+    result.put("evictedBytes", stats.evictionWeight());
+    Policy.Eviction<String, byte[]> eviction =
+        chunks.synchronous().policy().eviction().orElseThrow();
+    result.put("bytes", eviction.weightedSize().orElse(0));
+    return result;
+  }
+}
@@ -0,0 +1,150 @@
+package com.hhst.xsync.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hhst.xsync.entity.Change;
+import com.hhst.xsync.mapper.ChangeMapper;
+import com.hhst.xsync.service.IChangeService;
+import jakarta.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Per-user change log. Every change gets the next sequence number of its user, and listeners are
+ * notified once the change is committed. The latest sequence number of each user is kept in memory,
+ * so waiting feeds only hit the database when there is something new to read.
+ *
+ * <p>Committed sequence numbers are published to every server node over Redis, so listeners are
+ * woken by changes committed through any node, the committing one included.
+ */
+@Service
+@Slf4j
+public class ChangeServiceImpl extends ServiceImpl<ChangeMapper, Change>
+    implements IChangeService, MessageListener {
+
+  private static final String CHANNEL = "xsync:changes";
+
+  @Autowired private ChangeMapper mapper;
+
+  @Autowired
+  @Qualifier("bytesRedisTemplate")
+  private RedisTemplate<String, byte[]> redisTemplate;
+
+  @Autowired private RedisMessageListenerContainer listenerContainer;
+
+  /** Latest committed sequence number by user. */
+  private final Map<String, Long> latest = new ConcurrentHashMap<>();
+
+  /** Listeners of committed changes by user. */
+  private final Map<String, Set<LongConsumer>> listeners = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void init() {
+    listenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+  }
+
+  @Override
+  @Transactional
+  public Long record(
+      String email, String filepath, String operation, Long lastModifiedTime, Long version) {
+    mapper.nextSeq(email);
+    Long seq = mapper.lastInsertSeq();
+    mapper.insertChange(
+        new Change(
+            email,
+            seq,
+            filepath,
+            operation,
+            lastModifiedTime,
+            version,
+            System.currentTimeMillis()));
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            publish(email, seq);
+          }
+        });
+    return seq;
+  }
+
+  @Override
+  public List<Change> listSince(String email, Long cursor, Integer limit) {
+    List<Change> changes = mapper.listSince(email, cursor, limit);
+    if (!changes.isEmpty()) {
+      // Also covers changes of other nodes whose notification was lost
+      latest.merge(email, changes.getLast().getSeq(), Math::max);
+    }
+    return changes;
+  }
+
+  @Override
+  public Long latest(String email) {
+    return latest.computeIfAbsent(
+        email, key -> Objects.requireNonNullElse(mapper.latestSeq(key), 0L));
+  }
+
+  @Override
+  public Runnable subscribe(String email, LongConsumer listener) {
+    listeners.computeIfAbsent(email, key -> ConcurrentHashMap.newKeySet()).add(listener);
+    return () ->
+        listeners.computeIfPresent(
+            email,
+            (key, set) -> {
+              set.remove(listener);
+              return set.isEmpty() ? null : set;
+            });
+  }
+
+  @Override
+  public void onMessage(Message message, byte[] pattern) {
+    ByteBuffer body = ByteBuffer.wrap(message.getBody());
+    long seq = body.getLong();
+    wake(StandardCharsets.UTF_8.decode(body).toString(), seq);
+  }
+
+  private void publish(String email, long seq) {
+    latest.merge(email, seq, Math::max);
+    byte[] name = email.getBytes(StandardCharsets.UTF_8);
+    try {
+      redisTemplate.convertAndSend(
+          CHANNEL, ByteBuffer.allocate(Long.BYTES + name.length).putLong(seq).put(name).array());
+    } catch (RuntimeException e) {
+      // Listeners of other nodes fall back to reading when their wait times out
+      log.warn("Failed to publish change {} of {}", seq, email, e);
+      wake(email, seq);
+    }
+  }
+
+  private void wake(String email, long seq) {
+    latest.merge(email, seq, Math::max);
+    Set<LongConsumer> subscribers = listeners.get(email);
+    if (subscribers == null) {
+      return;
+    }
+    for (LongConsumer listener : subscribers) {
+      try {
+        listener.accept(seq);
+      } catch (RuntimeException e) {
+        log.error("Change listener failed for {}", email, e);
+      }
+    }
+  }
+}
@@ -1,10 +1,14 @@
 package com.hhst.xsync.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.google.common.collect.Lists;
 import com.hhst.xsync.entity.Chunk;
 import com.hhst.xsync.mapper.ChunkMapper;
 import com.hhst.xsync.service.IChunkService;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -12,6 +16,9 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class ChunkServiceImpl extends ServiceImpl<ChunkMapper, Chunk> implements IChunkService {
 
+  /** Rows written per statement, keeping statements well below max_allowed_packet. */
+  private static final int SLICE_SIZE = 1000;
+
   @Autowired private ChunkMapper mapper;
 
   @Override
@@ -30,26 +37,13 @@ public class ChunkServiceImpl extends ServiceImpl<ChunkMapper, Chunk> implements
 
   @Override
   @Transactional
-  public Integer upsertBatch(List<Chunk> chunks) {
-    int totalDelta = 0;
-
-    for (Chunk chunk : chunks) {
-      Chunk existing = getById(chunk.getHash());
-      if (existing != null) {
-        int delta = chunk.getSize() - existing.getSize();
-        updateById(chunk);
-        totalDelta += delta;
-      } else {
-        save(chunk);
-        totalDelta += chunk.getSize();
-      }
+  public void upsertBatch(List<Chunk> chunks) {
+    // A batch may repeat a chunk, every statement writes each hash once. Rows are locked in hash
+    // order, so uploads sharing chunks cannot deadlock each other
+    Map<String, Chunk> distinct = new TreeMap<>();
+    chunks.forEach(chunk -> distinct.put(chunk.getHash(), chunk));
+    for (List<Chunk> slice : Lists.partition(new ArrayList<>(distinct.values()), SLICE_SIZE)) {
+      mapper.upsertBatch(slice, System.currentTimeMillis());
     }
-
-    return totalDelta;
-  }
-
-  @Override
-  public List<Chunk> getIsolatedChunks() {
-    return mapper.getIsolatedChunks();
   }
 }
@@ -0,0 +1,167 @@
+package com.hhst.xsync.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.hhst.xsync.config.StorageProperties;
+import com.hhst.xsync.mapper.ChunkMapper;
+import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.ObjectStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Skips writes of chunks the storage already holds. A bloom filter of every known chunk hash
+ * answers most misses without a lookup, a bounded cache remembers recent answers and the chunk
+ * table decides the rest, marking the chunk as used so that it outlives the upload relying on it.
+ * The mark commits on its own right away, so it protects the chunk from the cleaner before the
+ * upload references it and holds no row lock while the upload goes on. Answers expire well before
+ * the grace period of the cleaner. Concurrent writes of the same chunk share a single write to the
+ * underlying storage.
+ */
+@Slf4j
+public class DedupStorageService implements ObjectStorageService {
+
+  private static final int PAGE_SIZE = 10000;
+
+  private final ObjectStorageService storage;
+  private final ChunkMapper chunkMapper;
+  private final TransactionTemplate touchTransaction;
+  private final BloomFilter<CharSequence> known;
+  private final Cache<String, Boolean> exists;
+  private final Map<String, CompletableFuture<Void>> inflight = new ConcurrentHashMap<>();
+
+  /** Whether the bloom filter holds every chunk of the table, until then it is not consulted. */
+  private volatile boolean loaded;
+
+  public DedupStorageService(
+      ObjectStorageService storage,
+      ChunkMapper chunkMapper,
+      TransactionTemplate transactionTemplate,
+      StorageProperties.Dedup properties) {
+    this.storage = storage;
+    this.chunkMapper = chunkMapper;
+    this.touchTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+    touchTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.known =
+        BloomFilter.create(
+            Funnels.stringFunnel(StandardCharsets.US_ASCII),
+            properties.getExpectedChunks(),
+            properties.getFalsePositiveRate());
+    this.exists =
+        Caffeine.newBuilder()
+            .maximumSize(properties.getCacheSize())
+            .expireAfterWrite(Duration.ofMillis(properties.getTtl()))
+            .build();
+  }
+
+  /** Adds every chunk of the chunk table to the bloom filter, paging through it by hash. */
+  public void load() {
+    long count = 0;
+    String after = "";
+    List<String> page;
+    do {
+      page = chunkMapper.listHashes(after, PAGE_SIZE);
+      page.forEach(known::put);
+      count += page.size();
+      if (!page.isEmpty()) {
+        after = page.getLast();
+      }
+    } while (page.size() == PAGE_SIZE);
+    loaded = true;
+    log.info("Loaded {} chunk hashes into the dedup filter", count);
+  }
+
+  @Override
+  public CompletableFuture<Void> putObject(String name, byte[] data) {
+    if (contains(name)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> created = new CompletableFuture<>();
+    CompletableFuture<Void> existing = inflight.putIfAbsent(name, created);
+    if (existing != null) {
+      return existing;
+    }
+    try {
+      storage
+          .putObject(name, data)
+          .whenComplete(
+              (v, e) -> {
+                if (e == null) {
+                  markStored(name);
+                }
+                inflight.remove(name, created);
+                if (e == null) {
+                  created.complete(null);
+                } else {
+                  created.completeExceptionally(e);
+                }
+              });
+    } catch (RuntimeException e) {
+      inflight.remove(name, created);
+      created.completeExceptionally(e);
+    }
+    return created;
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name) {
+    return storage.getObject(name);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return storage.getObject(name, offset, length);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name) {
+    return storage.openObject(name);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name, long offset, int length) {
+    return storage.openObject(name, offset, length);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObject(String name) {
+    // Forget the chunk before and after the removal, so a concurrent check never trusts it
+    exists.put(name, false);
+    return storage.removeObject(name).whenComplete((v, e) -> exists.put(name, false));
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObjects(List<String> names) {
+    names.forEach(name -> exists.put(name, false));
+    return storage
+        .removeObjects(names)
+        .whenComplete((v, e) -> names.forEach(name -> exists.put(name, false)));
+  }
+
+  private boolean contains(String name) {
+    if (loaded && !known.mightContain(name)) {
+      return false;
+    }
+    // Marking the chunk used keeps the cleaner off it while the upload references it. A row the
+    // cleaner holds is waited for and then found gone, so the chunk is written again
+    return exists.get(
+        name,
+        hash ->
+            touchTransaction.execute(
+                status -> chunkMapper.touch(hash, System.currentTimeMillis()) > 0));
+  }
+
+  private void markStored(String name) {
+    known.put(name);
+    exists.put(name, true);
+  }
+}
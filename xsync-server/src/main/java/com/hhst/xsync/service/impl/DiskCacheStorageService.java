@@ -0,0 +1,341 @@
+package com.hhst.xsync.service.impl;
+
+import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.ObjectStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps chunks on a local disk, bounded by their total size and evicting the least recently used.
+ * Chunks written or read through the storage are cached, so the chunks of recent uploads and
+ * popular chunks are read from the disk instead of over the network.
+ *
+ * <p>Files are named by the chunk hash and sharded into directories by its first two characters.
+ * A file is written under a temporary name, forced to the disk and moved into place, so a crash
+ * never leaves a partial chunk behind. On startup {@link #load()} indexes the files left by the
+ * previous run, ordered by their modification time, and removes unfinished temporary files.
+ */
+@Slf4j
+public class DiskCacheStorageService implements ObjectStorageService {
+
+  private static final Pattern CHUNK_NAME = Pattern.compile("[0-9a-f]{16,}");
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /** Objects opened as streams are cached if at most this large, larger ones pass through. */
+  private static final int MAX_STREAMED_ENTRY = 8 * 1024 * 1024;
+
+  private final ObjectStorageService storage;
+  private final Path directory;
+  private final long maxBytes;
+  private final Executor executor;
+
+  /** Size of every cached chunk, least recently used first. */
+  private final LinkedHashMap<String, Integer> index = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Chunks being written to the disk, guarded by the index. A removal drops the write. */
+  private final Map<String, Object> writes = new HashMap<>();
+
+  private long bytes;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param storage the storage to read missing chunks from
+   * @param directory the directory holding the cached chunks
+   * @param maxBytes the total size of the chunks to keep
+   * @param executor the executor running the disk operations
+   */
+  public DiskCacheStorageService(
+      ObjectStorageService storage, Path directory, long maxBytes, Executor executor) {
+    this.storage = storage;
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.executor = executor;
+  }
+
+  /** Indexes the chunks cached by a previous run, removing unfinished writes. */
+  public void load() throws IOException {
+    Files.createDirectories(directory);
+    List<Path> cached = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(directory, 2)) {
+      for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+        if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+          Files.deleteIfExists(file);
+        } else {
+          cached.add(file);
+        }
+      }
+    }
+    Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+    for (Path file : cached) {
+      attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+    cached.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+    int count = 0;
+    for (Path file : cached) {
+      String name = file.getFileName().toString();
+      if (CHUNK_NAME.matcher(name).matches() && file.equals(pathOf(name))) {
+        add(name, (int) attributes.get(file).size(), null);
+        count++;
+      } else {
+        Files.deleteIfExists(file);
+      }
+    }
+    log.info("Loaded {} cached chunks from {}", count, directory);
+  }
+
+  @Override
+  public CompletableFuture<Void> putObject(String name, byte[] data) {
+    return storage.putObject(name, data).thenRun(() -> cache(name, data));
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name) {
+    if (!contains(name)) {
+      if (CHUNK_NAME.matcher(name).matches()) {
+        misses.incrementAndGet();
+      }
+      return storage.getObject(name).thenApply(data -> cache(name, data));
+    }
+    return CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return Files.readAllBytes(pathOf(name));
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executor)
+        .thenApply(
+            data -> {
+              hits.incrementAndGet();
+              return data;
+            })
+        .exceptionallyCompose(
+            e -> {
+              // Evicted meanwhile or lost, read it from the storage again
+              if (!(e.getCause() instanceof UncheckedIOException io
+                  && io.getCause() instanceof NoSuchFileException)) {
+                log.warn("Failed to read cached chunk {}", name, e);
+              }
+              forget(name);
+              misses.incrementAndGet();
+              return storage.getObject(name).thenApply(data -> cache(name, data));
+            });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return storage.getObject(name, offset, length);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name) {
+    if (!contains(name)) {
+      if (CHUNK_NAME.matcher(name).matches()) {
+        misses.incrementAndGet();
+      }
+      return openRemote(name);
+    }
+    return CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                // An open file stays readable if it is evicted meanwhile
+                FileChannel channel = FileChannel.open(pathOf(name));
+                return new ObjectStream(Channels.newInputStream(channel), channel.size());
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executor)
+        .thenApply(
+            stream -> {
+              hits.incrementAndGet();
+              return stream;
+            })
+        .exceptionallyCompose(
+            e -> {
+              forget(name);
+              misses.incrementAndGet();
+              return openRemote(name);
+            });
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name, long offset, int length) {
+    return storage.openObject(name, offset, length);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObject(String name) {
+    forget(name);
+    return storage.removeObject(name);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObjects(List<String> names) {
+    names.forEach(this::forget);
+    return storage.removeObjects(names);
+  }
+
+  /** Returns the hit and miss counters of the cache and the size of the chunks it holds. */
+  public Map<String, Object> getStats() {
+    Map<String, Object> result = new LinkedHashMap<>();
+    long hit = hits.get();
+    long miss = misses.get();
+    result.put("hits", hit);
+    result.put("misses", miss);
+    result.put("hitRate", hit + miss == 0 ? 1.0 : (double) hit / (hit + miss));
+    synchronized (index) {
+      result.put("chunks", index.size());
+      result.put("bytes", bytes);
+    }
+    return result;
+  }
+
+  private boolean contains(String name) {
+    synchronized (index) {
+      return index.get(name) != null;
+    }
+  }
+
+  private CompletableFuture<ObjectStream> openRemote(String name) {
+    return storage
+        .openObject(name)
+        .thenApply(
+            stream -> {
+              if (stream.getLength() > MAX_STREAMED_ENTRY || !CHUNK_NAME.matcher(name).matches()) {
+                return stream;
+              }
+              try {
+                return ObjectStream.of(cache(name, stream.readAll()));
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+  }
+
+  /** Writes the chunk to the disk in the background, returns the chunk. */
+  private byte[] cache(String name, byte[] data) {
+    if (!CHUNK_NAME.matcher(name).matches() || data.length > maxBytes) {
+      return data;
+    }
+    Object write = new Object();
+    synchronized (index) {
+      if (index.get(name) != null || writes.putIfAbsent(name, write) != null) {
+        return data;
+      }
+    }
+    CompletableFuture.runAsync(
+            () -> {
+              Path path = pathOf(name);
+              Path temp = path.resolveSibling(name + "." + UUID.randomUUID() + TEMP_SUFFIX);
+              try {
+                Files.createDirectories(path.getParent());
+                try (FileChannel channel =
+                    FileChannel.open(
+                        temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                  ByteBuffer buffer = ByteBuffer.wrap(data);
+                  while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                  }
+                  // The content reaches the disk before the name, a crash leaves no truncated chunk
+                  channel.force(true);
+                }
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+              } catch (IOException e) {
+                synchronized (index) {
+                  writes.remove(name, write);
+                }
+                throw new CompletionException(e);
+              } finally {
+                try {
+                  Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                  log.debug("Failed to remove {}", temp, e);
+                }
+              }
+              add(name, data.length, write);
+            },
+            executor)
+        .exceptionally(
+            e -> {
+              log.warn("Failed to cache chunk {} on disk", name, e);
+              return null;
+            });
+    return data;
+  }
+
+  /**
+   * Indexes a cached chunk, then removes the least recently used chunks above the size bound.
+   *
+   * @param write the write of the chunk, a chunk removed while it was written is deleted instead
+   */
+  private void add(String name, int size, Object write) {
+    List<String> evicted = new ArrayList<>();
+    synchronized (index) {
+      if (write != null && !writes.remove(name, write)) {
+        evicted.add(name);
+      } else {
+        Integer previous = index.put(name, size);
+        bytes += size - (previous == null ? 0 : previous);
+        Iterator<Map.Entry<String, Integer>> eldest = index.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+          Map.Entry<String, Integer> entry = eldest.next();
+          bytes -= entry.getValue();
+          evicted.add(entry.getKey());
+          eldest.remove();
+        }
+      }
+    }
+    evicted.forEach(this::delete);
+  }
+
+  private void forget(String name) {
+    synchronized (index) {
+      writes.remove(name);
+      Integer size = index.remove(name);
+      if (size == null) {
+        return;
+      }
+      bytes -= size;
+    }
+    delete(name);
+  }
+
+  private void delete(String name) {
+    try {
+      Files.deleteIfExists(pathOf(name));
+    } catch (IOException e) {
+      log.warn("Failed to remove cached chunk {}", name, e);
+    }
+  }
+
+  private Path pathOf(String name) {
+    return directory.resolve(name.substring(0, 2)).resolve(name);
+  }
+}
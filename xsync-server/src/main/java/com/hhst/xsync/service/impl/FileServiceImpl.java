@@ -2,43 +2,144 @@ package com.hhst.xsync.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hhst.xsync.entity.Change;
+import com.hhst.xsync.entity.Chunk;
 import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.Metadata;
 import com.hhst.xsync.mapper.FileMapper;
+import com.hhst.xsync.service.IChangeService;
+import com.hhst.xsync.service.IChunkService;
 import com.hhst.xsync.service.IFileService;
-import com.hhst.xsync.utils.RedisUtil;
+import com.hhst.xsync.service.IManifestService;
+import com.hhst.xsync.utils.NearCache;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class FileServiceImpl extends ServiceImpl<FileMapper, File> implements IFileService {
 
+  /** File rows in the cache, their columns in order. */
+  private static final NearCache.Codec<File> FILE_CODEC =
+      new NearCache.Codec<>() {
+        @Override
+        public void write(DataOutput out, File file) throws IOException {
+          out.writeLong(file.getId());
+          out.writeUTF(file.getFilepath());
+          out.writeUTF(file.getEmail());
+          out.writeLong(file.getLastModifiedTime());
+          out.writeInt(file.getChunkCount());
+          out.writeLong(file.getSize());
+          out.writeUTF(file.getHash());
+          out.writeLong(file.getVersion());
+        }
+
+        @Override
+        public File read(DataInput in) throws IOException {
+          return new File(
+              in.readLong(),
+              in.readUTF(),
+              in.readUTF(),
+              in.readLong(),
+              in.readInt(),
+              in.readLong(),
+              in.readUTF(),
+              in.readLong());
+        }
+      };
+
   @Autowired private FileMapper mapper;
-  @Autowired private RedisUtil redisUtil;
+  @Autowired private NearCache nearCache;
+  @Autowired private IChangeService changeService;
+  @Autowired private IManifestService manifestService;
+  @Autowired private IChunkService chunkService;
 
   @Override
-  public void upsert(File file, Integer delta) {
-    mapper.upsert(file, delta);
-    redisUtil.set(
+  public void upsert(File file) {
+    mapper.upsert(file);
+    file.setVersion(mapper.getVersion(file.getId()));
+    nearCache.set(
         String.format("file:%s:%s", file.getEmail(), file.getFilepath()),
         file,
+        file.getVersion(),
+        FILE_CODEC,
         30,
         TimeUnit.MINUTES);
+    changeService.record(
+        file.getEmail(),
+        file.getFilepath(),
+        Change.UPSERT,
+        file.getLastModifiedTime(),
+        file.getVersion());
+  }
+
+  @Override
+  public Boolean update(File file, Long baseVersion) {
+    if (mapper.updateVersioned(file, baseVersion) == 0) {
+      return false;
+    }
+    file.setVersion(baseVersion + 1);
+    // The cached entry holds the previous version, let the next read load the new one
+    nearCache.invalidate(
+        String.format("file:%s:%s", file.getEmail(), file.getFilepath()), file.getVersion());
+    changeService.record(
+        file.getEmail(),
+        file.getFilepath(),
+        Change.UPSERT,
+        file.getLastModifiedTime(),
+        file.getVersion());
+    return true;
+  }
+
+  @Override
+  @Transactional
+  public Boolean commitUpload(File file, List<Chunk> chunks, Metadata meta, Integer baseCount) {
+    chunkService.upsertBatch(chunks);
+    if (meta.getEdits() != null) {
+      if (!update(file, meta.getBaseVersion())) {
+        return false;
+      }
+      manifestService.apply(file, meta.getEdits(), baseCount);
+    } else {
+      upsert(file);
+      manifestService.write(file, meta.getChunkHashes());
+    }
+    return true;
   }
 
   @Override
   public File getFileWithCache(String email, String path) {
-    File file = redisUtil.get(String.format("file:%s:%s", email, path), File.class);
+    String key = String.format("file:%s:%s", email, path);
+    File file = nearCache.get(key, FILE_CODEC);
     if (file == null) {
       file = getOne(new QueryWrapper<>(File.class).allEq(Map.of("filepath", path, "email", email)));
+      if (file != null) {
+        // Refused if the file changed since it was read
+        nearCache.set(key, file, file.getVersion(), FILE_CODEC, 30, TimeUnit.MINUTES);
+      }
     }
     return file;
   }
 
   @Override
+  @Transactional
   public Boolean deleteFileWithCache(String email, String path) {
-    redisUtil.del(String.format("file:%s:%s", email, path));
-    return remove(new QueryWrapper<>(File.class).allEq(Map.of("filepath", path, "email", email)));
+    nearCache.del(String.format("file:%s:%s", email, path));
+    File file =
+        getOne(new QueryWrapper<>(File.class).allEq(Map.of("filepath", path, "email", email)));
+    if (file == null) {
+      return false;
+    }
+    // The manifest rows reference the file, they go first and release their chunks
+    manifestService.delete(file);
+    removeById(file.getId());
+    changeService.record(email, path, Change.DELETE, null, null);
+    return true;
   }
 }
@@ -0,0 +1,294 @@
+package com.hhst.xsync.service.impl;
+
+import com.hhst.xsync.config.StorageProperties;
+import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.ObjectStream;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Stores objects as files of a local directory, for single node deployments without MinIO. An
+ * object is stored under two levels of directories named after the first characters of its name,
+ * so no directory grows too large. A file is written under a temporary name and renamed into place,
+ * so a crash never leaves a partial object behind.
+ *
+ * <p>Written files are made durable in batches: writes queue up while a batch is synced, and the
+ * next batch then syncs all of their files and every directory they were renamed into once, before
+ * the writes complete.
+ */
+@Service
+@Qualifier("backend")
+@ConditionalOnProperty(name = "xsync.storage.backend", havingValue = "local")
+@Slf4j
+public class LocalFileStorageService implements ObjectStorageService {
+
+  private static final Pattern BASE_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+  private static final String TEMP_DIRECTORY = ".tmp";
+
+  @Autowired private StorageProperties properties;
+
+  @Autowired
+  @Qualifier("minioExecutor")
+  private Executor executor;
+
+  private Path root;
+  private Path temp;
+  private final ConcurrentLinkedQueue<PendingWrite> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean syncing = new AtomicBoolean();
+
+  /** Creates the directory and removes the files of writes interrupted by a crash. */
+  @PostConstruct
+  public void init() throws IOException {
+    root = Path.of(properties.getLocal().getDirectory()).toAbsolutePath();
+    temp = root.resolve(TEMP_DIRECTORY);
+    Files.createDirectories(temp);
+    try (Stream<Path> files = Files.list(temp)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> putObject(String name, byte[] data) {
+    return CompletableFuture.supplyAsync(
+            () -> {
+              Path target = pathOf(name);
+              if (Files.exists(target)) {
+                // Names are content addressed or unique, an existing file holds the same bytes
+                return null;
+              }
+              Path file = temp.resolve(UUID.randomUUID().toString());
+              try (FileChannel channel =
+                  FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                  channel.write(buffer);
+                }
+                if (!properties.getLocal().isFsync()) {
+                  rename(file, target);
+                  return null;
+                }
+              } catch (IOException e) {
+                deleteQuietly(file);
+                throw new CompletionException(e);
+              }
+              PendingWrite write = new PendingWrite(file, target);
+              pending.add(write);
+              scheduleSync();
+              return write;
+            },
+            executor)
+        .thenCompose(write -> write == null ? CompletableFuture.completedFuture(null) : write.done);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name) {
+    return CompletableFuture.supplyAsync(() -> read(name, 0, -1), executor);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return CompletableFuture.supplyAsync(() -> read(name, offset, length), executor);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name) {
+    return CompletableFuture.supplyAsync(() -> open(name, 0, -1), executor);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name, long offset, int length) {
+    return CompletableFuture.supplyAsync(() -> open(name, offset, length), executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObject(String name) {
+    return removeObjects(List.of(name));
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObjects(List<String> names) {
+    return CompletableFuture.runAsync(
+        () -> {
+          for (String name : names) {
+            try {
+              Files.deleteIfExists(pathOf(name));
+            } catch (IOException e) {
+              log.error("Failed to delete object: {}", name, e);
+            }
+          }
+        },
+        executor);
+  }
+
+  private byte[] read(String name, long offset, int length) {
+    try (FileChannel channel = FileChannel.open(pathOf(name))) {
+      long size = length < 0 ? channel.size() - offset : length;
+      if (offset + size > channel.size()) {
+        throw new IOException("Range beyond the end of object " + name);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new IOException("Object " + name + " truncated");
+        }
+      }
+      return buffer.array();
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private ObjectStream open(String name, long offset, int length) {
+    try {
+      FileChannel channel = FileChannel.open(pathOf(name));
+      try {
+        long size = length < 0 ? channel.size() - offset : length;
+        if (offset + size > channel.size()) {
+          throw new IOException("Range beyond the end of object " + name);
+        }
+        channel.position(offset);
+        return new ObjectStream(Channels.newInputStream(channel), size);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  /** Starts a sync of the queued writes unless one is running, which then takes them as well. */
+  private void scheduleSync() {
+    if (syncing.compareAndSet(false, true)) {
+      executor.execute(this::sync);
+    }
+  }
+
+  private void sync() {
+    try {
+      List<PendingWrite> batch = new ArrayList<>();
+      PendingWrite write;
+      while ((write = pending.poll()) != null) {
+        batch.add(write);
+      }
+      Set<Path> directories = new LinkedHashSet<>();
+      List<PendingWrite> synced = new ArrayList<>(batch.size());
+      for (PendingWrite w : batch) {
+        try {
+          try (FileChannel channel = FileChannel.open(w.file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+          }
+          rename(w.file, w.target);
+          directories.add(w.target.getParent());
+          synced.add(w);
+        } catch (IOException | UncheckedIOException e) {
+          deleteQuietly(w.file);
+          w.done.completeExceptionally(e);
+        }
+      }
+      IOException failure = null;
+      for (Path directory : directories) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+          channel.force(true);
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      for (PendingWrite w : synced) {
+        if (failure == null) {
+          w.done.complete(null);
+        } else {
+          w.done.completeExceptionally(failure);
+        }
+      }
+    } finally {
+      syncing.set(false);
+      // Writes queued after the batch was taken, but before the flag was cleared
+      if (!pending.isEmpty()) {
+        scheduleSync();
+      }
+    }
+  }
+
+  private void rename(Path file, Path target) throws IOException {
+    Files.createDirectories(target.getParent());
+    try {
+      Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // Written concurrently under the same name
+      deleteQuietly(file);
+    }
+  }
+
+  /**
+   * Maps an object name to its file. Prefixes separated by slashes become directories, the last
+   * part is sharded by its first four characters.
+   */
+  private Path pathOf(String name) {
+    int slash = name.lastIndexOf('/');
+    String base = name.substring(slash + 1);
+    Path directory = root;
+    if (slash > 0) {
+      for (String part : name.substring(0, slash).split("/")) {
+        if (!BASE_NAME.matcher(part).matches()) {
+          throw new IllegalArgumentException("Invalid object name: " + name);
+        }
+        directory = directory.resolve(part);
+      }
+    }
+    if (!BASE_NAME.matcher(base).matches()) {
+      throw new IllegalArgumentException("Invalid object name: " + name);
+    }
+    if (base.length() >= 4) {
+      directory = directory.resolve(base.substring(0, 2)).resolve(base.substring(2, 4));
+    }
+    return directory.resolve(base);
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.warn("Failed to remove {}", file, e);
+    }
+  }
+
+  private static final class PendingWrite {
+    private final Path file;
+    private final Path target;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private PendingWrite(Path file, Path target) {
+      this.file = file;
+      this.target = target;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package com.hhst.xsync.service.impl;
+
+import com.hhst.xsync.entity.Chunk;
+import com.hhst.xsync.entity.Fc;
+import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.ManifestEdit;
+import com.hhst.xsync.mapper.FcMapper;
+import com.hhst.xsync.service.IManifestService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Manifest stored as one fc row per chunk position. Edits update the replaced positions in place
+ * and move the following rows with a single statement when the number of chunks changes, and are
+ * kept in the manifest history so that clients holding a recent version receive them instead of
+ * the whole manifest. The reference counts of the chunks follow every change, adjusted once per
+ * chunk by the difference between the rows replaced and the hashes written. Selected with {@code
+ * xsync.manifest.store: rows}, the default.
+ */
+@Service
+@ConditionalOnProperty(name = "xsync.manifest.store", havingValue = "rows", matchIfMissing = true)
+public class ManifestServiceImpl extends AbstractManifestService {
+
+  @Autowired private FcMapper fcMapper;
+
+  /** Fc rows per insert statement, large manifests would otherwise exceed the packet size. */
+  private static final int SLICE_SIZE = 1000;
+
+  @Override
+  protected List<String> loadChunkHashes(File file) {
+    return fcMapper.getChunkHashes(file);
+  }
+
+  @Override
+  protected Iterator<String> pageChunkHashes(File file) {
+    Long fileId = file.getId();
+    return paged(0, file.getChunkCount(), (from, to) -> fcMapper.listChunkHashes(fileId, from, to));
+  }
+
+  @Override
+  public Iterator<Chunk> iterateChunks(File file, int from, int to) {
+    Long fileId = file.getId();
+    return paged(from, to, (first, end) -> fcMapper.listChunks(fileId, first, end));
+  }
+
+  @Override
+  @Transactional
+  public void write(File file, List<String> chunkHashes) {
+    // Every row of the previous version is overwritten or removed
+    Map<String, Integer> deltas = new HashMap<>();
+    count(deltas, fcMapper.listChunkHashes(file.getId(), 0, Integer.MAX_VALUE), -1);
+    count(deltas, chunkHashes, 1);
+    upsertRows(file.getId(), 0, chunkHashes);
+    fcMapper.deleteInvalid(file.getId());
+    addReferences(deltas);
+    clearHistory(file);
+    cacheAfterCommit(file, chunkHashes);
+  }
+
+  @Override
+  @Transactional
+  public void apply(File file, List<ManifestEdit> edits, Integer baseCount) {
+    IManifestService.resultingCount(edits, baseCount);
+    Long fileId = file.getId();
+    Map<String, Integer> deltas = new HashMap<>();
+    for (ManifestEdit edit : edits) {
+      int start = edit.getStart();
+      int removed = edit.getEnd() - start;
+      List<String> hashes = edit.getHashes();
+      count(deltas, fcMapper.listChunkHashes(fileId, start, edit.getEnd()), -1);
+      count(deltas, hashes, 1);
+      int common = Math.min(removed, hashes.size());
+      upsertRows(fileId, start, hashes.subList(0, common));
+      if (hashes.size() > removed) {
+        fcMapper.shift(fileId, edit.getEnd(), hashes.size() - removed);
+        upsertRows(fileId, start + common, hashes.subList(common, hashes.size()));
+      } else if (hashes.size() < removed) {
+        fcMapper.deleteRange(fileId, start + common, edit.getEnd());
+        fcMapper.shift(fileId, edit.getEnd(), hashes.size() - removed);
+      }
+    }
+    addReferences(deltas);
+    recordEdits(file, edits);
+    cacheEditsAfterCommit(file, edits);
+  }
+
+  @Override
+  @Transactional
+  public void delete(File file) {
+    Map<String, Integer> deltas = new HashMap<>();
+    count(deltas, fcMapper.listChunkHashes(file.getId(), 0, Integer.MAX_VALUE), -1);
+    addReferences(deltas);
+    fcMapper.deleteAll(file.getId());
+    evictAfterCommit(file);
+  }
+
+  /** Writes the chunk hashes to consecutive positions, one bounded statement per slice. */
+  private void upsertRows(Long fileId, int start, List<String> hashes) {
+    for (int from = 0; from < hashes.size(); from += SLICE_SIZE) {
+      int to = Math.min(from + SLICE_SIZE, hashes.size());
+      List<Fc> fcs = new ArrayList<>(to - from);
+      for (int i = from; i < to; i++) {
+        fcs.add(new Fc(null, fileId, hashes.get(i), start + i));
+      }
+      fcMapper.upsertBatch(fcs, fileId);
+    }
+  }
+}
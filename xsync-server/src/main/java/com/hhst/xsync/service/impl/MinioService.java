@@ -2,6 +2,7 @@ package com.hhst.xsync.service.impl;
 
 import com.hhst.xsync.config.MinioProperties;
 import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.ObjectStream;
 import io.minio.*;
 import io.minio.messages.DeleteError;
 import io.minio.messages.DeleteObject;
@@ -15,9 +16,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 @Service
+@Qualifier("backend")
+@ConditionalOnProperty(
+    name = "xsync.storage.backend",
+    havingValue = "minio",
+    matchIfMissing = true)
 @Slf4j
 public class MinioService implements ObjectStorageService {
 
@@ -60,6 +67,61 @@ public class MinioService implements ObjectStorageService {
         executor);
   }
 
+  @Override
+  public CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try (InputStream is =
+              client.getObject(
+                  GetObjectArgs.builder()
+                      .bucket(properties.getBucket())
+                      .object(name)
+                      .offset(offset)
+                      .length((long) length)
+                      .build())) {
+            return IOUtils.toByteArray(is);
+          } catch (Exception e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name) {
+    return open(GetObjectArgs.builder().bucket(properties.getBucket()).object(name).build());
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name, long offset, int length) {
+    return open(
+        GetObjectArgs.builder()
+            .bucket(properties.getBucket())
+            .object(name)
+            .offset(offset)
+            .length((long) length)
+            .build());
+  }
+
+  /** Sends the request and hands out the response body unread. */
+  private CompletableFuture<ObjectStream> open(GetObjectArgs args) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            GetObjectResponse response = client.getObject(args);
+            String length = response.headers().get("Content-Length");
+            if (length == null) {
+              response.close();
+              throw new IllegalStateException("Missing length of object " + args.object());
+            }
+            return new ObjectStream(response, Long.parseLong(length));
+          } catch (Exception e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
   @Override
   public CompletableFuture<Void> removeObject(String name) {
     return CompletableFuture.runAsync(
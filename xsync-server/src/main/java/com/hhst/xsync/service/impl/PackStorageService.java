@@ -0,0 +1,384 @@
+package com.hhst.xsync.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Lists;
+import com.hhst.xsync.config.StorageProperties;
+import com.hhst.xsync.entity.Pack;
+import com.hhst.xsync.entity.PackEntry;
+import com.hhst.xsync.mapper.PackMapper;
+import com.hhst.xsync.service.ObjectStorageService;
+import com.hhst.xsync.service.ObjectStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Stores chunks in pack objects of several megabytes instead of one object each. Chunks written by
+ * the same thread, and thereby by the same upload, are appended to an open pack which is written
+ * once full or after a short delay, and the writes of its chunks complete once the pack is stored
+ * and its index rows are committed. Reads look up the location of a chunk and fetch its range of
+ * the pack. Chunks stored before packing or too large for a pack are objects of their own.
+ *
+ * <p>Removing a packed chunk only drops its index row, {@link #compact()} reclaims the space by
+ * rewriting packs left sparse.
+ */
+@Slf4j
+public class PackStorageService implements ObjectStorageService {
+
+  private static final String PREFIX = "packs/";
+
+  /** Rows per index statement. */
+  private static final int SLICE = 1000;
+
+  private final ObjectStorageService storage;
+  private final PackMapper packMapper;
+  private final TransactionTemplate transactionTemplate;
+  private final Executor executor;
+  private final StorageProperties.Pack properties;
+  private final Cache<String, PackEntry> locations;
+
+  /** Pack currently filled by each writing thread. */
+  private final Map<Long, OpenPack> open = new ConcurrentHashMap<>();
+
+  /** Pack holding each chunk not indexed yet, so that the chunk can be read meanwhile. */
+  private final Map<String, OpenPack> pending = new ConcurrentHashMap<>();
+
+  public PackStorageService(
+      ObjectStorageService storage,
+      PackMapper packMapper,
+      TransactionTemplate transactionTemplate,
+      Executor executor,
+      StorageProperties.Pack properties) {
+    this.storage = storage;
+    this.packMapper = packMapper;
+    this.transactionTemplate = transactionTemplate;
+    this.executor = executor;
+    this.properties = properties;
+    this.locations = Caffeine.newBuilder().maximumSize(properties.getCacheSize()).build();
+  }
+
+  @Override
+  public CompletableFuture<Void> putObject(String name, byte[] data) {
+    if (data.length > properties.getSize() / 4) {
+      return storage.putObject(name, data);
+    }
+    long writer = Thread.currentThread().threadId();
+    while (true) {
+      OpenPack pack = open.get(writer);
+      if (pack == null) {
+        pack = new OpenPack(writer);
+        OpenPack existing = open.putIfAbsent(writer, pack);
+        if (existing != null) {
+          pack = existing;
+        } else {
+          OpenPack opened = pack;
+          CompletableFuture.delayedExecutor(
+                  properties.getFlushDelay(), TimeUnit.MILLISECONDS, executor)
+              .execute(opened::seal);
+        }
+      }
+      CompletableFuture<Void> written = pack.append(name, data);
+      if (written != null) {
+        return written;
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name) {
+    OpenPack pack = pending.get(name);
+    if (pack != null) {
+      byte[] data = pack.read(name);
+      if (data != null) {
+        return CompletableFuture.completedFuture(data);
+      }
+    }
+    return read(name, true);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getObject(String name, long offset, int length) {
+    return getObject(name)
+        .thenApply(data -> Arrays.copyOfRange(data, (int) offset, (int) offset + length));
+  }
+
+  @Override
+  public CompletableFuture<ObjectStream> openObject(String name) {
+    OpenPack pack = pending.get(name);
+    if (pack != null) {
+      byte[] data = pack.read(name);
+      if (data != null) {
+        return CompletableFuture.completedFuture(ObjectStream.of(data));
+      }
+    }
+    return open(name, true);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObject(String name) {
+    return removeObjects(List.of(name));
+  }
+
+  @Override
+  public CompletableFuture<Void> removeObjects(List<String> names) {
+    Set<String> packed = new HashSet<>();
+    try {
+      for (List<String> slice : Lists.partition(names, SLICE)) {
+        packed.addAll(packMapper.listPacked(slice));
+      }
+      if (!packed.isEmpty()) {
+        transactionTemplate.executeWithoutResult(
+            status -> {
+              for (List<String> slice : Lists.partition(List.copyOf(packed), SLICE)) {
+                packMapper.releaseEntries(slice);
+                packMapper.deleteEntries(slice);
+              }
+            });
+        locations.invalidateAll(packed);
+      }
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    List<String> unpacked = names.stream().filter(name -> !packed.contains(name)).toList();
+    return unpacked.isEmpty()
+        ? CompletableFuture.completedFuture(null)
+        : storage.removeObjects(unpacked);
+  }
+
+  /**
+   * Rewrites the live chunks of sparse packs into new packs, merging several sparse packs into one,
+   * then removes the old packs.
+   *
+   * @return the number of packs removed
+   */
+  public int compact() {
+    List<Pack> sparse =
+        packMapper.listSparse(properties.getCompactRatio(), properties.getCompactBatch());
+    int removed = 0;
+    OpenPack target = new OpenPack(-1);
+    Map<Pack, List<PackEntry>> moves = new LinkedHashMap<>();
+    for (Pack pack : sparse) {
+      List<PackEntry> live = packMapper.listEntries(pack.getId());
+      if (live.isEmpty()) {
+        if (packMapper.deleteIfEmpty(pack.getId()) > 0) {
+          storage.removeObject(pack.getName()).join();
+          removed++;
+        }
+        continue;
+      }
+      byte[] data = storage.getObject(pack.getName()).join();
+      List<PackEntry> moved = new ArrayList<>(live.size());
+      for (PackEntry entry : live) {
+        int offset = entry.getOffset().intValue();
+        moved.add(target.add(entry.getHash(), data, offset, entry.getLength()));
+      }
+      moves.put(pack, moved);
+      if (target.size >= properties.getSize()) {
+        removed += relocate(target, moves);
+        target = new OpenPack(-1);
+        moves.clear();
+      }
+    }
+    if (!moves.isEmpty()) {
+      removed += relocate(target, moves);
+    }
+    return removed;
+  }
+
+  private CompletableFuture<byte[]> read(String name, boolean retry) {
+    PackEntry entry = locations.get(name, packMapper::findEntry);
+    if (entry == null) {
+      return storage.getObject(name);
+    }
+    CompletableFuture<byte[]> data =
+        storage.getObject(entry.getPackName(), entry.getOffset(), entry.getLength());
+    if (!retry) {
+      return data;
+    }
+    // Compaction may have moved the chunk and removed its pack since the lookup
+    return data.exceptionallyCompose(
+        e -> {
+          locations.invalidate(name);
+          return read(name, false);
+        });
+  }
+
+  private CompletableFuture<ObjectStream> open(String name, boolean retry) {
+    PackEntry entry = locations.get(name, packMapper::findEntry);
+    if (entry == null) {
+      return storage.openObject(name);
+    }
+    CompletableFuture<ObjectStream> stream =
+        storage.openObject(entry.getPackName(), entry.getOffset(), entry.getLength());
+    if (!retry) {
+      return stream;
+    }
+    return stream.exceptionallyCompose(
+        e -> {
+          locations.invalidate(name);
+          return open(name, false);
+        });
+  }
+
+  /** Stores a sealed pack, then commits its index. */
+  private void write(OpenPack pack) {
+    if (pack.entries.isEmpty()) {
+      pack.written.complete(null);
+      return;
+    }
+    String name = PREFIX + UUID.randomUUID();
+    storage
+        .putObject(name, pack.data)
+        .thenRun(() -> index(name, pack))
+        .whenComplete(
+            (v, e) -> {
+              pack.entries.keySet().forEach(hash -> pending.remove(hash, pack));
+              if (e == null) {
+                pack.written.complete(null);
+              } else {
+                log.error("Failed to write pack {}", name, e);
+                pack.written.completeExceptionally(e);
+              }
+            });
+  }
+
+  private void index(String name, OpenPack pack) {
+    try {
+      transactionTemplate.executeWithoutResult(
+          status -> {
+            Pack row = insertPack(name, pack);
+            List<PackEntry> entries = List.copyOf(pack.entries.values());
+            for (List<PackEntry> slice : Lists.partition(entries, SLICE)) {
+              packMapper.insertEntries(slice, row.getId());
+            }
+            packMapper.recomputeLiveSize(row.getId());
+          });
+    } catch (RuntimeException e) {
+      storage.removeObject(name);
+      throw e;
+    }
+  }
+
+  /**
+   * Stores a pack of chunks moved out of other packs, points their entries to it and removes the
+   * packs left empty.
+   */
+  private int relocate(OpenPack target, Map<Pack, List<PackEntry>> moves) {
+    target.seal();
+    String name = PREFIX + UUID.randomUUID();
+    storage.putObject(name, target.data).join();
+    List<String> emptied = new ArrayList<>();
+    try {
+      transactionTemplate.executeWithoutResult(
+          status -> {
+            Pack row = insertPack(name, target);
+            moves.forEach(
+                (pack, entries) -> {
+                  for (List<PackEntry> slice : Lists.partition(entries, SLICE)) {
+                    packMapper.moveEntries(slice, pack.getId(), row.getId());
+                  }
+                  if (packMapper.deleteIfEmpty(pack.getId()) > 0) {
+                    emptied.add(pack.getName());
+                  }
+                });
+            packMapper.recomputeLiveSize(row.getId());
+          });
+    } catch (RuntimeException e) {
+      storage.removeObject(name);
+      throw e;
+    }
+    moves.values().forEach(entries -> entries.forEach(e -> locations.invalidate(e.getHash())));
+    if (!emptied.isEmpty()) {
+      // Reads that located a chunk in an old pack before the move retry with its new location
+      storage.removeObjects(emptied).join();
+    }
+    return emptied.size();
+  }
+
+  private Pack insertPack(String name, OpenPack pack) {
+    Pack row = new Pack(null, name, (long) pack.data.length, 0L, System.currentTimeMillis());
+    packMapper.insert(row);
+    return row;
+  }
+
+  /** Pack being filled, immutable once sealed. */
+  private final class OpenPack {
+
+    private final long writer;
+    private final Map<String, PackEntry> entries = new LinkedHashMap<>();
+    private final CompletableFuture<Void> written = new CompletableFuture<>();
+    private byte[] data = new byte[Math.min(properties.getSize(), 64 * 1024)];
+    private int size;
+    private boolean sealed;
+
+    private OpenPack(long writer) {
+      this.writer = writer;
+    }
+
+    /**
+     * Appends a chunk, seals the pack once it is full.
+     *
+     * @return future completed once the chunk is stored, null if the pack is sealed already
+     */
+    private synchronized CompletableFuture<Void> append(String name, byte[] chunk) {
+      if (sealed) {
+        return null;
+      }
+      OpenPack holder = pending.putIfAbsent(name, this);
+      if (holder != null) {
+        return holder.written;
+      }
+      add(name, chunk, 0, chunk.length);
+      if (size >= properties.getSize()) {
+        seal();
+      }
+      return written;
+    }
+
+    private synchronized PackEntry add(String name, byte[] chunk, int offset, int length) {
+      if (size + length > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+      }
+      System.arraycopy(chunk, offset, data, size, length);
+      PackEntry entry = new PackEntry(name, null, (long) size, length, null);
+      entries.put(name, entry);
+      size += length;
+      return entry;
+    }
+
+    private synchronized byte[] read(String name) {
+      PackEntry entry = entries.get(name);
+      if (entry == null) {
+        return null;
+      }
+      int offset = entry.getOffset().intValue();
+      return Arrays.copyOfRange(data, offset, offset + entry.getLength());
+    }
+
+    private void seal() {
+      synchronized (this) {
+        if (sealed) {
+          return;
+        }
+        sealed = true;
+        data = Arrays.copyOf(data, size);
+      }
+      if (writer >= 0) {
+        open.remove(writer, this);
+        write(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.hhst.xsync.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reuses fixed size byte arrays for copying streams, so copies do not allocate a buffer each. At
+ * most a number of idle buffers is kept, buffers beyond it are left to the garbage collector.
+ */
+public class BufferPool {
+
+  private final int bufferSize;
+  private final BlockingQueue<byte[]> idle;
+
+  /**
+   * @param bufferSize the size of every buffer
+   * @param maxIdle the idle buffers to keep at most
+   */
+  public BufferPool(int bufferSize, int maxIdle) {
+    this.bufferSize = bufferSize;
+    this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+  }
+
+  /** Takes an idle buffer, or allocates one if there is none. */
+  public byte[] acquire() {
+    byte[] buffer = idle.poll();
+    return buffer != null ? buffer : new byte[bufferSize];
+  }
+
+  /** Returns a buffer taken from this pool, the caller must not use it anymore. */
+  public void release(byte[] buffer) {
+    if (buffer.length == bufferSize) {
+      idle.offer(buffer);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.hhst.xsync.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of bytes in flight. Producers acquire the size of their data before handing it
+ * off and block while the budget is exhausted, consumers release it once the data is no longer
+ * referenced. A budget may have a parent, so that a per-request budget also draws from a budget
+ * shared by all requests.
+ */
+public class ByteBudget {
+
+  private final long capacity;
+  private final ByteBudget parent;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private long used;
+
+  public ByteBudget(long capacity) {
+    this(capacity, null);
+  }
+
+  /**
+   * @param capacity the bytes that may be in flight at once, at most one item if not positive
+   * @param parent budget to draw from as well, or null
+   */
+  public ByteBudget(long capacity, ByteBudget parent) {
+    this.capacity = capacity;
+    this.parent = parent;
+  }
+
+  /**
+   * Waits until the bytes fit into the budget and reserves them. An item larger than the whole
+   * budget is admitted once nothing else is in flight, rather than blocking forever.
+   *
+   * @param bytes the bytes to reserve
+   * @throws InterruptedIOException if the thread is interrupted while waiting
+   */
+  public void acquire(long bytes) throws InterruptedIOException {
+    lock.lock();
+    try {
+      while (used > 0 && used + bytes > capacity) {
+        changed.await();
+      }
+      used += bytes;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the byte budget");
+    } finally {
+      lock.unlock();
+    }
+    if (parent != null) {
+      try {
+        parent.acquire(bytes);
+      } catch (InterruptedIOException e) {
+        releaseOwn(bytes);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Returns bytes reserved by {@link #acquire(long)}, may be called from any thread.
+   *
+   * @param bytes the bytes to return
+   */
+  public void release(long bytes) {
+    if (parent != null) {
+      parent.release(bytes);
+    }
+    releaseOwn(bytes);
+  }
+
+  /**
+   * Waits until every reserved byte has been released.
+   *
+   * @throws InterruptedIOException if the thread is interrupted while waiting
+   */
+  public void awaitDrained() throws InterruptedIOException {
+    lock.lock();
+    try {
+      while (used > 0) {
+        changed.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the byte budget");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the bytes currently reserved. */
+  public long getUsed() {
+    lock.lock();
+    try {
+      return used;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void releaseOwn(long bytes) {
+    lock.lock();
+    try {
+      used -= bytes;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
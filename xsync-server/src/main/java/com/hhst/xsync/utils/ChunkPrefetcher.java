@@ -0,0 +1,101 @@
+package com.hhst.xsync.utils;
+
+import com.hhst.xsync.service.ObjectStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Opens chunks in order through a sliding window. Chunks after the one being consumed are opened
+ * ahead of the consumer, at most a number of them at once and only while the chunks opened but not
+ * consumed yet stay below a size, so the memory and connections held by a download do not depend
+ * on its length. Closing the prefetcher closes the chunks opened ahead.
+ */
+public class ChunkPrefetcher implements Iterator<ObjectStream>, Closeable {
+
+  private final Iterator<String> hashes;
+  private final Function<String, CompletableFuture<ObjectStream>> opener;
+  private final int maxInFlight;
+  private final long maxBytes;
+  private final Deque<CompletableFuture<ObjectStream>> window = new ArrayDeque<>();
+
+  /** Bytes of the chunks in the window opened already. */
+  private final AtomicLong buffered = new AtomicLong();
+
+  /**
+   * @param hashes the hashes of the chunks, in the order to return them
+   * @param opener starts opening the chunk of a hash
+   * @param maxInFlight the chunks to open ahead at most
+   * @param maxBytes the bytes of chunks opened ahead above which no further one is opened
+   */
+  public ChunkPrefetcher(
+      Iterator<String> hashes,
+      Function<String, CompletableFuture<ObjectStream>> opener,
+      int maxInFlight,
+      long maxBytes) {
+    this.hashes = hashes;
+    this.opener = opener;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !window.isEmpty() || hashes.hasNext();
+  }
+
+  /**
+   * Waits for the next chunk, to be closed by the caller.
+   *
+   * @throws java.util.concurrent.CompletionException if the chunk could not be opened
+   */
+  @Override
+  public ObjectStream next() {
+    fill();
+    CompletableFuture<ObjectStream> head = window.poll();
+    if (head == null) {
+      throw new NoSuchElementException();
+    }
+    ObjectStream chunk = head.join();
+    buffered.addAndGet(-chunk.getLength());
+    // Keep the window full while the caller copies the chunk
+    fill();
+    return chunk;
+  }
+
+  @Override
+  public void close() {
+    CompletableFuture<ObjectStream> future;
+    while ((future = window.poll()) != null) {
+      future.thenAccept(ChunkPrefetcher::closeQuietly);
+    }
+  }
+
+  private void fill() {
+    while (hashes.hasNext() && window.size() < maxInFlight && buffered.get() < maxBytes) {
+      window.add(
+          opener
+              .apply(hashes.next())
+              .whenComplete(
+                  (chunk, e) -> {
+                    if (chunk != null) {
+                      buffered.addAndGet(chunk.getLength());
+                    }
+                  }));
+    }
+  }
+
+  private static void closeQuietly(ObjectStream stream) {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // The chunk was not used, nothing is lost
+    }
+  }
+}
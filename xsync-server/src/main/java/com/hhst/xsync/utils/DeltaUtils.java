@@ -0,0 +1,49 @@
+package com.hhst.xsync.utils;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Reconstructs delta encoded chunks. A delta is a zstd frame compressed with the base chunk as raw
+ * content dictionary, the same reference compression as zstd's --patch-from. Between compressed
+ * chunks, the delta is taken between their contents.
+ */
+public class DeltaUtils {
+
+  /** Upper bound of a reconstructed chunk, rejecting deltas that would inflate without limit. */
+  public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  public static byte[] reconstruct(byte[] delta, byte[] base) {
+    long size = Zstd.decompressedSize(delta);
+    if (size <= 0 || size > MAX_CHUNK_SIZE) {
+      throw new IllegalArgumentException("Invalid delta content size: " + size);
+    }
+    try {
+      return Zstd.decompress(delta, base, (int) size);
+    } catch (ZstdException e) {
+      throw new IllegalArgumentException("Corrupted delta: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Reconstructs a chunk stored zstd compressed from a delta between its content and the content of
+   * its compressed base. The content is compressed again at the level the client used, which gives
+   * back the bytes the client hashed since both sides use the same zstd version.
+   */
+  public static byte[] reconstruct(byte[] delta, byte[] base, int level) {
+    if (level < Zstd.minCompressionLevel() || level > Zstd.maxCompressionLevel()) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+    long size = Zstd.decompressedSize(base);
+    if (size <= 0 || size > MAX_CHUNK_SIZE) {
+      throw new IllegalArgumentException("Invalid delta base content size: " + size);
+    }
+    byte[] content;
+    try {
+      content = Zstd.decompress(base, (int) size);
+    } catch (ZstdException e) {
+      throw new IllegalArgumentException("Corrupted delta base: " + e.getMessage(), e);
+    }
+    return Zstd.compress(reconstruct(delta, content), level);
+  }
+}
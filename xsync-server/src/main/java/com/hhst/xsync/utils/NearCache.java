@@ -0,0 +1,227 @@
+package com.hhst.xsync.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Two tier cache of versioned values: decoded values in a local Caffeine cache in front of their
+ * binary encoding in Redis, shared by all server nodes. Every value carries a version that grows
+ * with each change of the underlying data, stored in front of its encoding.
+ *
+ * <p>Redis never replaces a value by an older version, and invalidating a key leaves a tombstone
+ * refusing the versions it invalidates for a while, so a node writing back what it read before a
+ * change cannot resurrect the old value. Writes and invalidations are published to every node,
+ * which drops its local entries of older versions and refuses them for the same while. Local
+ * entries also expire after a short time, bounding their staleness if a message is lost.
+ *
+ * <p>Local hits return the cached instance, callers must not modify it.
+ */
+@Component
+@Slf4j
+public class NearCache implements MessageListener {
+
+  private static final String CHANNEL = "xsync:near-cache:invalidate";
+
+  /** Version of a tombstone of a removed key, refusing every value. */
+  private static final long REMOVED = Long.MAX_VALUE;
+
+  /** Writes the value unless the key holds a later version, read from the first 8 bytes. */
+  private static final RedisScript<Long> SET_IF_NEWER =
+      new DefaultRedisScript<>(
+          """
+          local current = redis.call('GET', KEYS[1])
+          if current and struct.unpack('>i8', current) > tonumber(ARGV[2]) then
+            return 0
+          end
+          redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[3])
+          return 1
+          """,
+          Long.class);
+
+  @Autowired
+  @Qualifier("bytesRedisTemplate")
+  private RedisTemplate<String, byte[]> redisTemplate;
+
+  @Autowired private RedisMessageListenerContainer listenerContainer;
+
+  @Value("${xsync.near-cache.local-size}")
+  private long localSize;
+
+  @Value("${xsync.near-cache.local-ttl}")
+  private long localTtl;
+
+  @Value("${xsync.near-cache.tombstone-ttl}")
+  private long tombstoneTtl;
+
+  private Cache<String, Entry> local;
+
+  /** Versions below which values of recently invalidated keys are refused locally. */
+  private Cache<String, Long> floors;
+
+  /**
+   * Encodes values of one type into a compact binary form.
+   *
+   * @param <T> the type of the values
+   */
+  public interface Codec<T> {
+
+    void write(DataOutput out, T value) throws IOException;
+
+    T read(DataInput in) throws IOException;
+  }
+
+  @PostConstruct
+  public void init() {
+    local =
+        Caffeine.newBuilder()
+            .maximumSize(localSize)
+            .expireAfterWrite(Duration.ofMillis(localTtl))
+            .build();
+    floors = Caffeine.newBuilder().expireAfterWrite(Duration.ofMillis(tombstoneTtl)).build();
+    listenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+  }
+
+  /**
+   * Get a value, from the local tier or else from Redis.
+   *
+   * @return the value, or null if neither tier holds it
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public <T> T get(@NotNull String key, Codec<T> codec) {
+    Entry entry = local.getIfPresent(key);
+    if (entry != null) {
+      return (T) entry.value;
+    }
+    byte[] bytes = redisTemplate.opsForValue().get(key);
+    if (bytes == null || bytes.length <= Long.BYTES) {
+      // Missing or a tombstone
+      return null;
+    }
+    long version = ByteBuffer.wrap(bytes).getLong();
+    T value;
+    try {
+      int length = bytes.length - Long.BYTES;
+      value = codec.read(new DataInputStream(new ByteArrayInputStream(bytes, Long.BYTES, length)));
+    } catch (IOException e) {
+      log.warn("Dropping undecodable cache entry {}", key, e);
+      redisTemplate.delete(key);
+      return null;
+    }
+    putLocal(key, new Entry(version, value));
+    return value;
+  }
+
+  /**
+   * Cache a value in both tiers, unless a later version is cached already.
+   *
+   * @param version the version of the value, growing with every change
+   */
+  public <T> void set(
+      @NotNull String key, T value, long version, Codec<T> codec, long timeout, TimeUnit unit) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(buffer)) {
+      out.writeLong(version);
+      codec.write(out, value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (write(key, buffer.toByteArray(), version, unit.toMillis(timeout))) {
+      putLocal(key, new Entry(version, value));
+      publish(key, version);
+    }
+  }
+
+  /**
+   * Invalidate the versions of a value older than the given one on every node.
+   *
+   * @param version the first version still valid
+   */
+  public void invalidate(@NotNull String key, long version) {
+    write(key, ByteBuffer.allocate(Long.BYTES).putLong(version).array(), version, tombstoneTtl);
+    publish(key, version);
+  }
+
+  /** Remove a value on every node, refusing to cache it again for a while. */
+  public void del(@NotNull String key) {
+    invalidate(key, REMOVED);
+  }
+
+  @Override
+  public void onMessage(Message message, byte[] pattern) {
+    ByteBuffer body = ByteBuffer.wrap(message.getBody());
+    long version = body.getLong();
+    String key = StandardCharsets.UTF_8.decode(body).toString();
+    // The floor goes first, so that a value loaded concurrently is refused once it was dropped
+    floors.asMap().merge(key, version, Math::max);
+    local.asMap().computeIfPresent(key, (k, entry) -> entry.version < version ? null : entry);
+  }
+
+  private boolean write(String key, byte[] bytes, long version, long ttl) {
+    Long written =
+        redisTemplate.execute(SET_IF_NEWER, List.of(key), bytes, ascii(version), ascii(ttl));
+    return written != null && written == 1;
+  }
+
+  private void putLocal(String key, Entry entry) {
+    local
+        .asMap()
+        .compute(
+            key,
+            (k, current) -> {
+              Long floor = floors.getIfPresent(k);
+              if (floor != null && entry.version < floor) {
+                return current;
+              }
+              return current != null && current.version > entry.version ? current : entry;
+            });
+  }
+
+  private void publish(String key, long version) {
+    byte[] name = key.getBytes(StandardCharsets.UTF_8);
+    redisTemplate.convertAndSend(
+        CHANNEL, ByteBuffer.allocate(Long.BYTES + name.length).putLong(version).put(name).array());
+  }
+
+  private static byte[] ascii(long value) {
+    return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static final class Entry {
+    private final long version;
+    private final Object value;
+
+    private Entry(long version, Object value) {
+      this.version = version;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.hhst.xsync.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs every task on a virtual thread of its own, at most a number of them at once. A task beyond
+ * the limit waits for a permit on its own virtual thread, so submitting never blocks and never runs
+ * the task on the submitting thread, and the limit bounds the load on the backend the tasks call
+ * rather than the number of threads.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+  private final int maxConcurrency;
+  private final Semaphore permits;
+  private final ThreadFactory threads;
+
+  /**
+   * @param namePrefix the prefix of the names of the threads, followed by a counter
+   * @param maxConcurrency the tasks running at once at most
+   */
+  public VirtualThreadExecutor(String namePrefix, int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+    this.permits = new Semaphore(maxConcurrency, true);
+    this.threads = Thread.ofVirtual().name(namePrefix, 0).factory();
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    threads
+        .newThread(
+            () -> {
+              // Not interruptible, a task dropped while waiting would leave its future incomplete
+              permits.acquireUninterruptibly();
+              try {
+                task.run();
+              } finally {
+                permits.release();
+              }
+            })
+        .start();
+  }
+
+  /** Returns the number of tasks running. */
+  public int getActiveCount() {
+    return maxConcurrency - permits.availablePermits();
+  }
+
+  /** Returns an estimate of the number of tasks waiting for a permit. */
+  public int getWaitingCount() {
+    return permits.getQueueLength();
+  }
+}
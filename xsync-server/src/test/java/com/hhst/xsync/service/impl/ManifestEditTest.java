@@ -0,0 +1,83 @@
+package com.hhst.xsync.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.hhst.xsync.entity.ManifestEdit;
+import com.hhst.xsync.service.IManifestService;
+import com.hhst.xsync.utils.HashList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/** Applies diffs the way uploads and manifest fetches do, see AbstractManifestService.splice. */
+class ManifestEditTest {
+
+  private static final String A = "0a0b0c0d";
+  private static final String B = "1a1b1c1d";
+  private static final String C = "2a2b2c2d";
+  private static final String D = "3a3b3c3d";
+
+  @Test
+  void appliesEmptyDiff() {
+    assertEquals(List.of(A, B), apply(List.of(A, B), List.of()));
+    assertEquals(List.of(), apply(List.of(), List.of()));
+  }
+
+  @Test
+  void appliesEditAfterCommonPrefix() {
+    // Appended chunks, then a truncated tail
+    assertEquals(
+        List.of(A, B, C, D), apply(List.of(A, B), List.of(new ManifestEdit(2, 2, List.of(C, D)))));
+    assertEquals(List.of(A), apply(List.of(A, B, C), List.of(new ManifestEdit(1, 3, List.of()))));
+  }
+
+  @Test
+  void appliesEditBeforeCommonSuffix() {
+    // Prepended chunks, then a removed head
+    assertEquals(
+        List.of(C, D, A, B), apply(List.of(A, B), List.of(new ManifestEdit(0, 0, List.of(C, D)))));
+    assertEquals(List.of(C), apply(List.of(A, B, C), List.of(new ManifestEdit(0, 2, List.of()))));
+  }
+
+  @Test
+  void appliesFullReplacement() {
+    assertEquals(
+        List.of(C, D, A), apply(List.of(A, B), List.of(new ManifestEdit(0, 2, List.of(C, D, A)))));
+    assertEquals(List.of(A, B), apply(List.of(), List.of(new ManifestEdit(0, 0, List.of(A, B)))));
+    assertEquals(List.of(), apply(List.of(A, B), List.of(new ManifestEdit(0, 2, List.of()))));
+  }
+
+  @Test
+  void appliesEditsInOrder() {
+    List<ManifestEdit> edits =
+        List.of(new ManifestEdit(0, 1, List.of(C, D)), new ManifestEdit(2, 3, List.of(A)));
+    assertEquals(List.of(C, D, A), apply(List.of(A, B), edits));
+  }
+
+  @Test
+  void rejectsEditsOutsideManifest() {
+    for (ManifestEdit edit :
+        List.of(
+            new ManifestEdit(-1, 0, List.<String>of()),
+            new ManifestEdit(2, 1, List.<String>of()),
+            new ManifestEdit(0, 3, List.of(A)))) {
+      assertThrows(
+          IllegalArgumentException.class, () -> IManifestService.resultingCount(List.of(edit), 2));
+    }
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            AbstractManifestService.splice(
+                HashList.of(List.of(A, B)), new ManifestEdit(0, 1, List.of("0a0b"))));
+  }
+
+  private static List<String> apply(List<String> base, List<ManifestEdit> edits) {
+    int count = IManifestService.resultingCount(edits, base.size());
+    HashList hashes = HashList.of(base);
+    for (ManifestEdit edit : edits) {
+      hashes = AbstractManifestService.splice(hashes, edit);
+    }
+    assertEquals(count, hashes.size());
+    return hashes;
+  }
+}
@@ -0,0 +1,247 @@
+package com.hhst.xsync.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.hhst.xsync.entity.Fc;
+import com.hhst.xsync.entity.File;
+import com.hhst.xsync.entity.ManifestEdit;
+import com.hhst.xsync.mapper.ChunkMapper;
+import com.hhst.xsync.mapper.FcMapper;
+import com.hhst.xsync.mapper.FileMapper;
+import com.hhst.xsync.mapper.ManifestHistoryMapper;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Applies edits to the fc rows of a manifest kept in memory, checking the rows and the reference
+ * counts against the edits applied to a plain list, the way clients apply them.
+ */
+class ManifestServiceImplTest {
+
+  private static final long FILE_ID = 7L;
+
+  private static final String A = "0a0b0c0d";
+  private static final String B = "1a1b1c1d";
+  private static final String C = "2a2b2c2d";
+  private static final String D = "3a3b3c3d";
+  private static final String E = "4a4b4c4d";
+  private static final String F = "5a5b5c5d";
+  private static final String G = "6a6b6c6d";
+  private static final List<String> HASHES = List.of(A, B, C, D, E, F);
+
+  /** Fc rows of the file by position. */
+  private final TreeMap<Integer, String> rows = new TreeMap<>();
+
+  /** Reference counts by chunk hash. */
+  private final Map<String, Integer> references = new HashMap<>();
+
+  private ManifestServiceImpl service;
+
+  @BeforeEach
+  void setUp() {
+    service = new ManifestServiceImpl();
+    ReflectionTestUtils.setField(service, "fcMapper", fcMapper());
+    ReflectionTestUtils.setField(service, "chunkMapper", chunkMapper());
+    ReflectionTestUtils.setField(service, "historyMapper", stub(ManifestHistoryMapper.class));
+    ReflectionTestUtils.setField(service, "fileMapper", stub(FileMapper.class));
+    ReflectionTestUtils.setField(service, "history", 100L);
+    ReflectionTestUtils.setField(service, "cacheBytes", 1L << 20);
+    service.init();
+  }
+
+  @Test
+  void appliesEditKeepingCount() {
+    check(List.of(A, B, C), List.of(new ManifestEdit(1, 2, List.of(D))));
+  }
+
+  @Test
+  void appliesInsertionShiftingFollowingRows() {
+    check(List.of(A, B, C), List.of(new ManifestEdit(1, 1, List.of(D, E))));
+    check(List.of(A, B, C), List.of(new ManifestEdit(1, 2, List.of(D, E, A))));
+    check(List.of(A, B), List.of(new ManifestEdit(2, 2, List.of(C))));
+  }
+
+  @Test
+  void appliesDeletionShiftingFollowingRows() {
+    check(List.of(A, B, C, D), List.of(new ManifestEdit(1, 3, List.of())));
+    check(List.of(A, B, C, D), List.of(new ManifestEdit(0, 3, List.of(E))));
+    check(List.of(A, B), List.of(new ManifestEdit(0, 2, List.of())));
+  }
+
+  @Test
+  void appliesSeveralEditsInOrder() {
+    check(
+        List.of(A, B, C, D, E),
+        List.of(
+            new ManifestEdit(0, 1, List.of()),
+            new ManifestEdit(1, 1, List.of(F, G)),
+            new ManifestEdit(4, 6, List.of(A))));
+  }
+
+  @Test
+  void appliesRandomEdits() {
+    Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      List<String> base = randomHashes(random, random.nextInt(12));
+      List<ManifestEdit> edits = new ArrayList<>();
+      int count = base.size();
+      for (int i = random.nextInt(4); i > 0; i--) {
+        int start = random.nextInt(count + 1);
+        int end = start + random.nextInt(count - start + 1);
+        List<String> hashes = randomHashes(random, random.nextInt(4));
+        edits.add(new ManifestEdit(start, end, hashes));
+        count += hashes.size() - (end - start);
+      }
+      check(base, edits);
+    }
+  }
+
+  @Test
+  void rejectsEditsOutsideManifest() {
+    write(List.of(A, B));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> service.apply(file(2, 2), List.of(new ManifestEdit(1, 3, List.of())), 2));
+    assertEquals(List.of(A, B), List.copyOf(rows.values()));
+  }
+
+  @Test
+  void deletesRowsAndReleasesChunks() {
+    write(List.of(A, B, A));
+    service.delete(file(3, 1));
+    assertTrue(rows.isEmpty());
+    references.values().forEach(count -> assertEquals(0, count));
+  }
+
+  /** Writes the base, applies the edits and compares the result with the edited list. */
+  private void check(List<String> base, List<ManifestEdit> edits) {
+    rows.clear();
+    references.clear();
+    write(base);
+    List<String> expected = apply(base, edits);
+    service.apply(file(expected.size(), 2), edits, base.size());
+    assertEquals(expected, List.copyOf(rows.values()), "rows after " + edits);
+    assertEquals(expected.size(), rows.isEmpty() ? 0 : rows.lastKey() + 1, "positions");
+    Map<String, Integer> counts = new HashMap<>();
+    expected.forEach(hash -> counts.merge(hash, 1, Integer::sum));
+    references.forEach(
+        (hash, count) ->
+            assertEquals(counts.getOrDefault(hash, 0), count, "references of " + hash));
+  }
+
+  private void write(List<String> hashes) {
+    service.write(file(hashes.size(), 1), hashes);
+  }
+
+  /** Applies edits the way ManifestUtils.apply of the client does. */
+  private static List<String> apply(List<String> base, List<ManifestEdit> edits) {
+    List<String> hashes = new ArrayList<>(base);
+    for (ManifestEdit edit : edits) {
+      List<String> range = hashes.subList(edit.getStart(), edit.getEnd());
+      range.clear();
+      range.addAll(edit.getHashes());
+    }
+    return hashes;
+  }
+
+  private static List<String> randomHashes(Random random, int count) {
+    List<String> hashes = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      hashes.add(HASHES.get(random.nextInt(HASHES.size())));
+    }
+    return hashes;
+  }
+
+  private static File file(int chunkCount, long version) {
+    return new File(FILE_ID, "file", "user", 0L, chunkCount, 0L, "", version);
+  }
+
+  /** Fc rows in memory, moved by shift in one step like the ordered update. */
+  private FcMapper fcMapper() {
+    return mapper(
+        FcMapper.class,
+        (name, args) ->
+            switch (name) {
+              case "upsertBatch" -> {
+                @SuppressWarnings("unchecked")
+                List<Fc> fcs = (List<Fc>) args[0];
+                fcs.forEach(fc -> rows.put(fc.getIndex(), fc.getChunkHash()));
+                yield null;
+              }
+              case "shift" -> {
+                int from = (Integer) args[1];
+                int offset = (Integer) args[2];
+                Map<Integer, String> moved = new TreeMap<>(rows.tailMap(from));
+                rows.keySet().removeAll(moved.keySet());
+                moved.forEach(
+                    (index, hash) -> {
+                      if (rows.put(index + offset, hash) != null) {
+                        throw new IllegalStateException("Duplicate position " + (index + offset));
+                      }
+                    });
+                yield null;
+              }
+              case "deleteRange" -> {
+                rows.subMap((Integer) args[1], (Integer) args[2]).clear();
+                yield null;
+              }
+              case "deleteAll" -> {
+                rows.clear();
+                yield null;
+              }
+              case "deleteInvalid" -> {
+                // Every write starts from an empty manifest here, no rows lie beyond it
+                yield null;
+              }
+              case "listChunkHashes" -> {
+                int from = (Integer) args[1];
+                int to = (Integer) args[2];
+                yield from >= to ? List.of() : List.copyOf(rows.subMap(from, to).values());
+              }
+              default -> throw new UnsupportedOperationException(name);
+            });
+  }
+
+  private ChunkMapper chunkMapper() {
+    return mapper(
+        ChunkMapper.class,
+        (name, args) -> {
+          if (!name.equals("addReferenceCounts")) {
+            throw new UnsupportedOperationException(name);
+          }
+          @SuppressWarnings("unchecked")
+          Map<String, Integer> deltas = (Map<String, Integer>) args[0];
+          deltas.forEach((hash, n) -> references.merge(hash, n, Integer::sum));
+          return null;
+        });
+  }
+
+  private static <T> T stub(Class<T> type) {
+    return mapper(type, (name, args) -> null);
+  }
+
+  private interface Handler {
+    Object invoke(String name, Object[] args);
+  }
+
+  private static <T> T mapper(Class<T> type, Handler handler) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) ->
+                method.getDeclaringClass() == Object.class
+                    ? method.invoke(handler, args)
+                    : handler.invoke(method.getName(), args)));
+  }
+}
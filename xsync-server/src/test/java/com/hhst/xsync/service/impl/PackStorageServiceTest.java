@@ -0,0 +1,324 @@
+package com.hhst.xsync.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.hhst.xsync.config.StorageProperties;
+import com.hhst.xsync.entity.Pack;
+import com.hhst.xsync.entity.PackEntry;
+import com.hhst.xsync.mapper.PackMapper;
+import com.hhst.xsync.service.ObjectStorageService;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/** Packs chunks into a storage and an index kept in memory, then compacts the packs. */
+class PackStorageServiceTest {
+
+  /** Bytes of a pack, holding four chunks. */
+  private static final int PACK_SIZE = 64;
+
+  private static final int CHUNK_SIZE = 16;
+
+  private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+  private final Map<Long, Pack> packs = new ConcurrentHashMap<>();
+  private final Map<String, PackEntry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong ids = new AtomicLong();
+  private PackStorageService service;
+
+  @BeforeEach
+  void setUp() {
+    StorageProperties.Pack properties = new StorageProperties.Pack();
+    properties.setSize(PACK_SIZE);
+    properties.setFlushDelay(60_000);
+    properties.setCompactRatio(0.8);
+    properties.setCompactBatch(10);
+    properties.setCacheSize(100);
+    service =
+        new PackStorageService(
+            storage(),
+            packMapper(),
+            new TransactionTemplate(transactionManager()),
+            Runnable::run,
+            properties);
+  }
+
+  @Test
+  void packsChunks() throws IOException {
+    List<String> names = write(8);
+    assertEquals(2, packs.size());
+    assertEquals(2, objects.size());
+    for (String name : names) {
+      assertArrayEquals(chunk(name), service.getObject(name).join());
+      assertArrayEquals(chunk(name), service.openObject(name).join().readAll());
+    }
+    packs.values().forEach(pack -> assertEquals(PACK_SIZE, pack.getLiveSize()));
+  }
+
+  @Test
+  void storesLargeChunksAlone() {
+    byte[] large = new byte[PACK_SIZE / 4 + 1];
+    service.putObject("large", large).join();
+    assertTrue(packs.isEmpty());
+    assertArrayEquals(large, objects.get("large"));
+    service.removeObject("large").join();
+    assertTrue(objects.isEmpty());
+  }
+
+  @Test
+  void removesEntriesOfPackedChunks() {
+    List<String> names = write(4);
+    service.removeObjects(names.subList(0, 3)).join();
+    assertEquals(List.of(names.get(3)), List.copyOf(entries.keySet()));
+    Pack pack = packs.values().iterator().next();
+    assertEquals(CHUNK_SIZE, pack.getLiveSize());
+    // The pack object stays until compaction
+    assertEquals(1, objects.size());
+    assertThrows(CompletionException.class, () -> service.getObject(names.get(0)).join());
+    assertArrayEquals(chunk(names.get(3)), service.getObject(names.get(3)).join());
+  }
+
+  @Test
+  void mergesSparsePacks() {
+    List<String> names = write(8);
+    List<String> removed = List.of(names.get(0), names.get(1), names.get(2), names.get(5));
+    service.removeObjects(removed).join();
+    List<String> old = packs.values().stream().map(Pack::getName).toList();
+
+    assertEquals(2, service.compact());
+    assertEquals(1, packs.size());
+    Pack pack = packs.values().iterator().next();
+    assertEquals(4L * CHUNK_SIZE, pack.getSize());
+    assertEquals(pack.getSize(), pack.getLiveSize());
+    assertEquals(List.of(pack.getName()), List.copyOf(objects.keySet()));
+    old.forEach(name -> assertFalse(objects.containsKey(name)));
+    for (String name : names) {
+      if (!removed.contains(name)) {
+        assertArrayEquals(chunk(name), service.getObject(name).join());
+      }
+    }
+    assertEquals(0, service.compact());
+  }
+
+  @Test
+  void splitsMovedChunksAcrossFullPacks() {
+    List<String> names = write(12);
+    // Each pack keeps three of its four chunks, two of them fill a new pack
+    service.removeObjects(List.of(names.get(0), names.get(4), names.get(8))).join();
+
+    assertEquals(3, service.compact());
+    assertEquals(2, packs.size());
+    assertEquals(9, entries.size());
+    assertEquals(
+        List.of(3L * CHUNK_SIZE, 6L * CHUNK_SIZE),
+        packs.values().stream().map(Pack::getLiveSize).sorted().toList());
+    for (String name : names.subList(1, 4)) {
+      assertArrayEquals(chunk(name), service.getObject(name).join());
+    }
+    for (String name : names.subList(5, 12)) {
+      if (!name.equals(names.get(8))) {
+        assertArrayEquals(chunk(name), service.getObject(name).join());
+      }
+    }
+  }
+
+  @Test
+  void deletesEmptyPacks() {
+    List<String> names = write(8);
+    service.removeObjects(names.subList(0, 4)).join();
+    assertEquals(1, service.compact());
+    assertEquals(1, packs.size());
+    assertEquals(1, objects.size());
+    for (String name : names.subList(4, 8)) {
+      assertArrayEquals(chunk(name), service.getObject(name).join());
+    }
+  }
+
+  /** Writes chunks from this thread, filling and sealing packs one after another. */
+  private List<String> write(int count) {
+    List<String> names = new ArrayList<>();
+    List<CompletableFuture<Void>> written = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String name = String.format("%08x", i);
+      names.add(name);
+      written.add(service.putObject(name, chunk(name)));
+    }
+    written.forEach(CompletableFuture::join);
+    return names;
+  }
+
+  /** Content of a chunk, derived from its name. */
+  private static byte[] chunk(String name) {
+    byte[] data = new byte[CHUNK_SIZE];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (name.hashCode() + i);
+    }
+    return data;
+  }
+
+  private ObjectStorageService storage() {
+    return new ObjectStorageService() {
+      @Override
+      public CompletableFuture<Void> putObject(String name, byte[] data) {
+        objects.put(name, data.clone());
+        return CompletableFuture.completedFuture(null);
+      }
+
+      @Override
+      public CompletableFuture<byte[]> getObject(String name) {
+        byte[] data = objects.get(name);
+        return data != null
+            ? CompletableFuture.completedFuture(data.clone())
+            : CompletableFuture.failedFuture(new IllegalStateException("Missing " + name));
+      }
+
+      @Override
+      public CompletableFuture<Void> removeObject(String name) {
+        objects.remove(name);
+        return CompletableFuture.completedFuture(null);
+      }
+
+      @Override
+      public CompletableFuture<Void> removeObjects(List<String> names) {
+        names.forEach(objects::remove);
+        return CompletableFuture.completedFuture(null);
+      }
+    };
+  }
+
+  /** Pack and pack_entry tables in memory, following the statements of the mapper. */
+  @SuppressWarnings("unchecked")
+  private PackMapper packMapper() {
+    return (PackMapper)
+        Proxy.newProxyInstance(
+            PackMapper.class.getClassLoader(),
+            new Class<?>[] {PackMapper.class},
+            (proxy, method, args) ->
+                switch (method.getName()) {
+                  case "insert" -> {
+                    Pack pack = (Pack) args[0];
+                    pack.setId(ids.incrementAndGet());
+                    packs.put(pack.getId(), pack);
+                    yield 1;
+                  }
+                  case "insertEntries" -> {
+                    for (PackEntry entry : (List<PackEntry>) args[0]) {
+                      entries.putIfAbsent(
+                          entry.getHash(),
+                          new PackEntry(
+                              entry.getHash(),
+                              (Long) args[1],
+                              entry.getOffset(),
+                              entry.getLength(),
+                              null));
+                    }
+                    yield null;
+                  }
+                  case "findEntry" -> {
+                    PackEntry entry = entries.get((String) args[0]);
+                    yield entry == null
+                        ? null
+                        : new PackEntry(
+                            entry.getHash(),
+                            entry.getPackId(),
+                            entry.getOffset(),
+                            entry.getLength(),
+                            packs.get(entry.getPackId()).getName());
+                  }
+                  case "listEntries" ->
+                      entries.values().stream()
+                          .filter(entry -> entry.getPackId().equals(args[0]))
+                          .sorted(Comparator.comparing(PackEntry::getOffset))
+                          .toList();
+                  case "listPacked" ->
+                      ((Collection<String>) args[0]).stream().filter(entries::containsKey).toList();
+                  case "releaseEntries" -> {
+                    for (String hash : (Collection<String>) args[0]) {
+                      PackEntry entry = entries.get(hash);
+                      if (entry != null) {
+                        Pack pack = packs.get(entry.getPackId());
+                        pack.setLiveSize(pack.getLiveSize() - entry.getLength());
+                      }
+                    }
+                    yield null;
+                  }
+                  case "deleteEntries" -> {
+                    ((Collection<String>) args[0]).forEach(entries::remove);
+                    yield null;
+                  }
+                  case "moveEntries" -> {
+                    for (PackEntry moved : (List<PackEntry>) args[0]) {
+                      entries.computeIfPresent(
+                          moved.getHash(),
+                          (hash, entry) ->
+                              entry.getPackId().equals(args[1])
+                                  ? new PackEntry(
+                                      hash,
+                                      (Long) args[2],
+                                      moved.getOffset(),
+                                      moved.getLength(),
+                                      null)
+                                  : entry);
+                    }
+                    yield null;
+                  }
+                  case "recomputeLiveSize" -> {
+                    Pack pack = packs.get((Long) args[0]);
+                    pack.setLiveSize(
+                        entries.values().stream()
+                            .filter(entry -> entry.getPackId().equals(args[0]))
+                            .mapToLong(PackEntry::getLength)
+                            .sum());
+                    yield null;
+                  }
+                  case "listSparse" ->
+                      packs.values().stream()
+                          .filter(pack -> pack.getLiveSize() < pack.getSize() * (Double) args[0])
+                          .sorted(
+                              Comparator.comparingDouble(
+                                  pack -> (double) pack.getLiveSize() / pack.getSize()))
+                          .limit((Integer) args[1])
+                          .toList();
+                  case "deleteIfEmpty" -> {
+                    boolean empty =
+                        entries.values().stream()
+                            .noneMatch(entry -> entry.getPackId().equals(args[0]));
+                    yield empty && packs.remove((Long) args[0]) != null ? 1 : 0;
+                  }
+                  default -> throw new UnsupportedOperationException(method.getName());
+                });
+  }
+
+  private static PlatformTransactionManager transactionManager() {
+    return new PlatformTransactionManager() {
+      @Override
+      public TransactionStatus getTransaction(TransactionDefinition definition) {
+        return new SimpleTransactionStatus();
+      }
+
+      @Override
+      public void commit(TransactionStatus status) {}
+
+      @Override
+      public void rollback(TransactionStatus status) {}
+    };
+  }
+}
@@ -0,0 +1,128 @@
+package com.hhst.xsync.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class ByteBudgetTest {
+
+  @Test
+  void admitsWithinCapacity() throws Exception {
+    ByteBudget budget = new ByteBudget(10);
+    budget.acquire(4);
+    budget.acquire(6);
+    assertEquals(10, budget.getUsed());
+    CompletableFuture<Void> blocked = acquireAsync(budget, 1);
+    assertBlocked(blocked);
+    budget.release(4);
+    blocked.get(5, TimeUnit.SECONDS);
+    assertEquals(7, budget.getUsed());
+  }
+
+  @Test
+  void admitsOversizedItemAlone() throws Exception {
+    ByteBudget budget = new ByteBudget(10);
+    budget.acquire(25);
+    assertEquals(25, budget.getUsed());
+    // Nothing else fits until the oversized item is released
+    CompletableFuture<Void> next = acquireAsync(budget, 1);
+    assertBlocked(next);
+    budget.release(25);
+    next.get(5, TimeUnit.SECONDS);
+
+    // An oversized item waits for the items in flight, then goes alone
+    CompletableFuture<Void> oversized = acquireAsync(budget, 25);
+    assertBlocked(oversized);
+    budget.release(1);
+    oversized.get(5, TimeUnit.SECONDS);
+    assertEquals(25, budget.getUsed());
+  }
+
+  @Test
+  void drawsFromParent() throws Exception {
+    ByteBudget shared = new ByteBudget(10);
+    ByteBudget first = new ByteBudget(8, shared);
+    ByteBudget second = new ByteBudget(8, shared);
+    first.acquire(6);
+    assertEquals(6, shared.getUsed());
+
+    // Fits the budget of the request, not the shared one
+    CompletableFuture<Void> blocked = acquireAsync(second, 6);
+    assertBlocked(blocked);
+    assertEquals(6, second.getUsed());
+    first.release(6);
+    blocked.get(5, TimeUnit.SECONDS);
+    assertEquals(0, first.getUsed());
+    assertEquals(6, second.getUsed());
+    assertEquals(6, shared.getUsed());
+
+    second.release(6);
+    assertEquals(0, shared.getUsed());
+  }
+
+  @Test
+  void rollsBackWhenInterruptedWaitingForParent() throws Exception {
+    ByteBudget shared = new ByteBudget(10);
+    ByteBudget own = new ByteBudget(10, shared);
+    shared.acquire(10);
+    Thread thread = Thread.currentThread();
+    CompletableFuture<Void> interrupt =
+        CompletableFuture.runAsync(
+            () -> {
+              // Interrupts once the acquisition waits for the parent
+              while (own.getUsed() == 0) {
+                Thread.onSpinWait();
+              }
+              thread.interrupt();
+            });
+    assertThrows(InterruptedIOException.class, () -> own.acquire(5));
+    assertTrue(Thread.interrupted());
+    interrupt.get(5, TimeUnit.SECONDS);
+    assertEquals(0, own.getUsed());
+    assertEquals(10, shared.getUsed());
+  }
+
+  @Test
+  void awaitsDrain() throws Exception {
+    ByteBudget budget = new ByteBudget(10);
+    budget.acquire(3);
+    budget.acquire(4);
+    CompletableFuture<Void> drained =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                budget.awaitDrained();
+              } catch (InterruptedIOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    budget.release(3);
+    assertBlocked(drained);
+    budget.release(4);
+    drained.get(5, TimeUnit.SECONDS);
+    budget.awaitDrained();
+  }
+
+  private static CompletableFuture<Void> acquireAsync(ByteBudget budget, long bytes) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            budget.acquire(bytes);
+          } catch (InterruptedIOException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  private static void assertBlocked(CompletableFuture<Void> future) {
+    assertThrows(TimeoutException.class, () -> future.get(100, TimeUnit.MILLISECONDS));
+    assertFalse(future.isDone());
+  }
+}
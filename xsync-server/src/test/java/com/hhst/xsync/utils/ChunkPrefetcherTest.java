@@ -0,0 +1,151 @@
+package com.hhst.xsync.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.hhst.xsync.service.ObjectStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.Test;
+
+class ChunkPrefetcherTest {
+
+  private static final List<String> HASHES = List.of("a", "b", "c", "d", "e");
+
+  /** Futures handed out by the opener, by hash in the order they were requested. */
+  private final Map<String, CompletableFuture<ObjectStream>> opened =
+      Collections.synchronizedMap(new LinkedHashMap<>());
+
+  private final Set<String> closed = Collections.synchronizedSet(new HashSet<>());
+
+  @Test
+  void returnsChunksInOrder() throws IOException {
+    List<String> read = new ArrayList<>();
+    try (ChunkPrefetcher chunks = prefetcher(3, Long.MAX_VALUE, true)) {
+      while (chunks.hasNext()) {
+        try (ObjectStream chunk = chunks.next()) {
+          read.add(new String(chunk.readAll(), StandardCharsets.UTF_8));
+        }
+      }
+      assertThrows(NoSuchElementException.class, chunks::next);
+    }
+    assertEquals(HASHES, read);
+  }
+
+  @Test
+  void opensAtMostMaxInFlightAhead() {
+    ChunkPrefetcher chunks = prefetcher(2, Long.MAX_VALUE, true);
+    assertTrue(opened.isEmpty());
+    chunks.next();
+    assertEquals(List.of("a", "b", "c"), List.copyOf(opened.keySet()));
+    chunks.next();
+    assertEquals(List.of("a", "b", "c", "d"), List.copyOf(opened.keySet()));
+  }
+
+  @Test
+  void stopsOpeningAboveMaxBytes() {
+    // Each chunk holds one byte, one chunk opened ahead already reaches the bound
+    ChunkPrefetcher chunks = prefetcher(4, 1, true);
+    chunks.next();
+    assertEquals(List.of("a", "b"), List.copyOf(opened.keySet()));
+    chunks.next();
+    assertEquals(List.of("a", "b", "c"), List.copyOf(opened.keySet()));
+  }
+
+  @Test
+  void keepsOpeningWhileChunksArePending() {
+    // Pending chunks have no known size yet, only the count bounds them
+    ChunkPrefetcher chunks = prefetcher(3, 1, false);
+    CompletableFuture<ObjectStream> first = CompletableFuture.supplyAsync(chunks::next);
+    while (opened.size() < 3) {
+      Thread.onSpinWait();
+    }
+    opened.get("a").complete(stream("a"));
+    assertEquals("a", read(first.join()));
+  }
+
+  @Test
+  void closesChunksOpenedAhead() {
+    ChunkPrefetcher chunks = prefetcher(3, Long.MAX_VALUE, false);
+    CompletableFuture<ObjectStream> first = CompletableFuture.supplyAsync(chunks::next);
+    while (opened.size() < 3) {
+      Thread.onSpinWait();
+    }
+    opened.get("a").complete(stream("a"));
+    first.join();
+    opened.get("b").complete(stream("b"));
+    chunks.close();
+    assertEquals(Set.of("b"), closed);
+
+    // Chunks still opening are closed once they are open
+    opened.get("c").complete(stream("c"));
+    opened.get("d").complete(stream("d"));
+    assertEquals(Set.of("b", "c", "d"), closed);
+  }
+
+  @Test
+  void failsOnChunkThatCannotBeOpened() {
+    ChunkPrefetcher chunks =
+        new ChunkPrefetcher(
+            HASHES.iterator(),
+            hash ->
+                hash.equals("b")
+                    ? CompletableFuture.failedFuture(new IOException("missing " + hash))
+                    : CompletableFuture.completedFuture(stream(hash)),
+            2,
+            Long.MAX_VALUE);
+    assertEquals("a", read(chunks.next()));
+    CompletionException e = assertThrows(CompletionException.class, chunks::next);
+    assertTrue(e.getCause() instanceof IOException);
+    chunks.close();
+    assertEquals(Set.of("a", "c"), closed);
+  }
+
+  /** Opens chunks whose content is their hash, at once or when the test completes them. */
+  private ChunkPrefetcher prefetcher(int maxInFlight, long maxBytes, boolean immediate) {
+    return new ChunkPrefetcher(
+        HASHES.iterator(),
+        hash -> {
+          CompletableFuture<ObjectStream> future =
+              immediate
+                  ? CompletableFuture.completedFuture(stream(hash))
+                  : new CompletableFuture<>();
+          opened.put(hash, future);
+          return future;
+        },
+        maxInFlight,
+        maxBytes);
+  }
+
+  private ObjectStream stream(String hash) {
+    byte[] data = hash.getBytes(StandardCharsets.UTF_8);
+    return new ObjectStream(
+        new ByteArrayInputStream(data) {
+          @Override
+          public void close() {
+            closed.add(hash);
+          }
+        },
+        data.length);
+  }
+
+  private static String read(ObjectStream chunk) {
+    try {
+      return new String(chunk.readAll(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package com.hhst.xsync.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.hhst.xsync.entity.ManifestEdit;
+import com.hhst.xsync.entity.Metadata;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FrameCodecTest {
+
+  private static final int HASH_LENGTH = 4;
+  private static final String A = "0a0b0c0d";
+  private static final String B = "1a1b1c1d";
+  private static final String C = "2a2b2c2d";
+
+  @Test
+  void roundTripsManifestChunksAndTrailer() throws IOException {
+    Metadata manifest = new Metadata();
+    manifest.setFilepath("dir/file.txt");
+    manifest.setFilesize(12L);
+    manifest.setFileHash("ffee");
+    manifest.setLastModifiedTime(1_700_000_000_000L);
+    manifest.setVersion(3L);
+    manifest.setChunkCount(3);
+    manifest.setChunkHashes(List.of(A, B, C));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameCodec.Writer writer = new FrameCodec.Writer(out, HASH_LENGTH);
+    writer.writeHeader();
+    writer.writeManifest(manifest);
+    writer.writeChunk(new byte[] {1, 2, 3}, null);
+    writer.writeChunk(new byte[] {4}, A);
+    writer.writeChunk(new byte[] {5, 6}, B, 7);
+    writer.writeEnd("abcd");
+
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertTrue(FrameCodec.isFramed(in));
+    FrameCodec.Reader reader = new FrameCodec.Reader(in);
+    assertEquals(FrameCodec.MANIFEST, reader.next());
+    assertEquals(manifest, reader.getManifest());
+
+    assertEquals(FrameCodec.CHUNK, reader.next());
+    assertArrayEquals(new byte[] {1, 2, 3}, reader.getData());
+    assertNull(reader.getBase());
+    assertNull(reader.getLevel());
+
+    assertEquals(FrameCodec.CHUNK, reader.next());
+    assertArrayEquals(new byte[] {4}, reader.getData());
+    assertEquals(A, reader.getBase());
+    assertNull(reader.getLevel());
+
+    assertEquals(FrameCodec.CHUNK, reader.next());
+    assertArrayEquals(new byte[] {5, 6}, reader.getData());
+    assertEquals(B, reader.getBase());
+    assertEquals(7, reader.getLevel());
+
+    assertEquals(FrameCodec.END, reader.next());
+    assertEquals("abcd", reader.getHash());
+    assertEquals(3, reader.getChunkCount());
+    assertThrows(IllegalStateException.class, reader::next);
+  }
+
+  @Test
+  void roundTripsDiff() throws IOException {
+    Metadata manifest = new Metadata();
+    manifest.setFilepath("file");
+    manifest.setChunkCount(3);
+    manifest.setBaseVersion(2L);
+    manifest.setEdits(
+        List.of(new ManifestEdit(0, 1, List.of(B, C)), new ManifestEdit(3, 3, List.of())));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameCodec.Writer writer = new FrameCodec.Writer(out, HASH_LENGTH);
+    writer.writeHeader();
+    writer.writeManifest(manifest);
+    writer.writeEnd(null);
+
+    FrameCodec.Reader reader = new FrameCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(FrameCodec.MANIFEST, reader.next());
+    assertEquals(manifest, reader.getManifest());
+    assertEquals(FrameCodec.END, reader.next());
+    assertNull(reader.getHash());
+  }
+
+  @Test
+  void skipsUnknownFrames() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameCodec.Writer writer = new FrameCodec.Writer(out, HASH_LENGTH);
+    writer.writeHeader();
+    out.write(42);
+    FrameCodec.writeVarLong(out, 3);
+    out.write(new byte[] {7, 8, 9});
+    writer.writeChunk(new byte[] {1}, null);
+    writer.writeEnd(null);
+
+    FrameCodec.Reader reader = new FrameCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(FrameCodec.CHUNK, reader.next());
+    assertArrayEquals(new byte[] {1}, reader.getData());
+    assertEquals(FrameCodec.END, reader.next());
+  }
+
+  @Test
+  void rejectsTruncatedStreams() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameCodec.Writer writer = new FrameCodec.Writer(out, HASH_LENGTH);
+    writer.writeHeader();
+    writer.writeChunk(new byte[] {1, 2, 3, 4}, A);
+    writer.writeEnd(null);
+    byte[] stream = out.toByteArray();
+
+    // Cut inside the chunk frame, then before the trailer
+    FrameCodec.Reader cut =
+        new FrameCodec.Reader(new ByteArrayInputStream(Arrays.copyOf(stream, 10)));
+    assertThrows(EOFException.class, cut::next);
+    FrameCodec.Reader ended =
+        new FrameCodec.Reader(new ByteArrayInputStream(Arrays.copyOf(stream, stream.length - 2)));
+    assertEquals(FrameCodec.CHUNK, ended.next());
+    assertThrows(EOFException.class, ended::next);
+    assertThrows(
+        EOFException.class, () -> new FrameCodec.Reader(new ByteArrayInputStream(new byte[2])));
+  }
+
+  @Test
+  void rejectsTruncatedDeltaChunks() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new FrameCodec.Writer(out, HASH_LENGTH).writeHeader();
+    out.write(FrameCodec.CHUNK);
+    FrameCodec.writeVarLong(out, 3);
+    out.write(new byte[] {FrameCodec.FLAG_DELTA, 0, 0});
+
+    FrameCodec.Reader reader = new FrameCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+    assertThrows(IllegalArgumentException.class, reader::next);
+  }
+
+  @Test
+  void rejectsTrailerCountMismatch() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameCodec.Writer writer = new FrameCodec.Writer(out, HASH_LENGTH);
+    writer.writeHeader();
+    writer.writeChunk(new byte[] {1}, null);
+    writer.writeEnd(2, null);
+
+    FrameCodec.Reader reader = new FrameCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(FrameCodec.CHUNK, reader.next());
+    assertThrows(IllegalArgumentException.class, reader::next);
+  }
+
+  @Test
+  void rejectsOversizedFrames() throws IOException {
+    for (int[] frame :
+        new int[][] {
+          {FrameCodec.CHUNK, FrameCodec.MAX_CHUNK_FRAME_SIZE},
+          {FrameCodec.END, FrameCodec.MAX_FRAME_SIZE},
+          {42, FrameCodec.MAX_FRAME_SIZE}
+        }) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new FrameCodec.Writer(out, HASH_LENGTH).writeHeader();
+      out.write(frame[0]);
+      FrameCodec.writeVarLong(out, frame[1] + 1L);
+
+      FrameCodec.Reader reader = new FrameCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+      IllegalArgumentException e = assertThrows(IllegalArgumentException.class, reader::next);
+      assertTrue(e.getMessage().startsWith("Frame too large"));
+    }
+  }
+
+  @Test
+  void rejectsForeignStreams() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new DataOutputStream(out).writeInt(0x12345678);
+    out.write(new byte[] {FrameCodec.VERSION, HASH_LENGTH});
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertFalse(FrameCodec.isFramed(in));
+    assertThrows(IllegalArgumentException.class, () -> new FrameCodec.Reader(in));
+  }
+
+  @Test
+  void roundTripsEditsAndHashes() {
+    List<ManifestEdit> edits =
+        List.of(new ManifestEdit(1, 2, List.of(A)), new ManifestEdit(0, 0, List.of()));
+    assertEquals(edits, FrameCodec.decodeEdits(FrameCodec.encodeEdits(edits)));
+    List<String> hashes = List.of(A, B, C);
+    assertEquals(hashes, FrameCodec.decodeHashes(FrameCodec.encodeHashes(hashes)));
+    assertEquals(List.of(), FrameCodec.decodeHashes(FrameCodec.encodeHashes(List.of())));
+  }
+}
@@ -0,0 +1,102 @@
+package com.hhst.xsync.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class HashListTest {
+
+  private static final String A = "0a0b0c0d";
+  private static final String B = "1a1b1c1d";
+  private static final String C = "0a0b0c0e";
+
+  @Test
+  void packsAndUnpacksHashes() {
+    HashList hashes = HashList.of(List.of(A, B, C));
+    assertEquals(3, hashes.size());
+    assertEquals(4, hashes.getHashLength());
+    assertEquals(List.of(A, B, C), hashes);
+    assertEquals(B, hashes.get(1));
+    assertArrayEquals(HexFormat.of().parseHex(A + B + C), hashes.toBytes());
+    assertSame(hashes, HashList.of(hashes));
+    assertThrows(IndexOutOfBoundsException.class, () -> hashes.get(3));
+    assertThrows(IndexOutOfBoundsException.class, () -> hashes.get(-1));
+  }
+
+  @Test
+  void packsEmptyList() {
+    HashList hashes = HashList.of(List.of());
+    assertTrue(hashes.isEmpty());
+    assertFalse(hashes.contains(A));
+    assertEquals(-1, hashes.indexOf(A));
+  }
+
+  @Test
+  void rejectsInvalidHashes() {
+    assertThrows(IllegalArgumentException.class, () -> HashList.of(List.of(A, "0a0b")));
+    assertThrows(IllegalArgumentException.class, () -> HashList.of(List.of(A, "zz0b0c0d")));
+    assertThrows(IllegalArgumentException.class, () -> new HashList(new byte[5], 4));
+    assertThrows(IllegalArgumentException.class, () -> new HashList(new byte[4], 0));
+  }
+
+  @Test
+  void findsFirstOccurrence() {
+    HashList hashes = HashList.of(List.of(A, B, A, C, B));
+    assertEquals(0, hashes.indexOf(A));
+    assertEquals(1, hashes.indexOf(B));
+    assertEquals(3, hashes.indexOf(C));
+    assertTrue(hashes.contains(C));
+  }
+
+  @Test
+  void missesForeignValues() {
+    HashList hashes = HashList.of(List.of(A, B));
+    assertEquals(-1, hashes.indexOf("2a2b2c2d"));
+    assertEquals(-1, hashes.indexOf("0a0b"));
+    assertEquals(-1, hashes.indexOf("zz0b0c0d"));
+    assertEquals(-1, hashes.indexOf(42));
+    assertFalse(hashes.contains(null));
+  }
+
+  @Test
+  void indexesLargeManifests() {
+    // Hashes sharing their leading bytes land in the same bucket
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      expected.add(String.format("0000%08x", i));
+    }
+    HashList hashes = HashList.of(expected);
+    for (int i = 0; i < expected.size(); i += 997) {
+      assertEquals(i, hashes.indexOf(expected.get(i)));
+    }
+    assertEquals(-1, hashes.indexOf("0001" + "00000000"));
+  }
+
+  @Test
+  void buildsIndexConcurrently() {
+    List<String> expected =
+        IntStream.range(0, 10_000).mapToObj(i -> String.format("%08x", i * 7919)).toList();
+    HashList hashes = HashList.of(expected);
+    List<CompletableFuture<Void>> lookups = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      lookups.add(
+          CompletableFuture.runAsync(
+              () -> {
+                for (int i = 0; i < expected.size(); i++) {
+                  assertEquals(i, hashes.indexOf(expected.get(i)));
+                }
+              }));
+    }
+    lookups.forEach(CompletableFuture::join);
+  }
+}
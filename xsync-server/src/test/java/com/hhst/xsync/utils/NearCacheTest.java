@@ -0,0 +1,184 @@
+package com.hhst.xsync.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Two nodes sharing a Redis kept in memory, which applies the conditional write of the script and
+ * delivers published messages to both nodes at once.
+ */
+class NearCacheTest {
+
+  private static final String KEY = "file:1";
+
+  private static final NearCache.Codec<String> CODEC =
+      new NearCache.Codec<>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+          out.writeUTF(value);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+          return in.readUTF();
+        }
+      };
+
+  private final Map<String, byte[]> redis = new ConcurrentHashMap<>();
+  private final List<NearCache> nodes = new ArrayList<>();
+  private NearCache first;
+  private NearCache second;
+
+  @BeforeEach
+  void setUp() {
+    first = node();
+    second = node();
+  }
+
+  @Test
+  void readsValueWrittenByAnotherNode() {
+    first.set(KEY, "v1", 1, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v1", second.get(KEY, CODEC));
+    assertNull(second.get("file:2", CODEC));
+  }
+
+  @Test
+  void keepsLaterVersion() {
+    first.set(KEY, "v2", 2, CODEC, 1, TimeUnit.MINUTES);
+    second.set(KEY, "v1", 1, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v2", first.get(KEY, CODEC));
+    assertEquals("v2", second.get(KEY, CODEC));
+  }
+
+  @Test
+  void dropsOlderLocalEntriesOnWrite() {
+    first.set(KEY, "v1", 1, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v1", second.get(KEY, CODEC));
+    first.set(KEY, "v2", 2, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v2", second.get(KEY, CODEC));
+  }
+
+  @Test
+  void refusesInvalidatedVersions() {
+    first.set(KEY, "v1", 1, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v1", second.get(KEY, CODEC));
+    first.invalidate(KEY, 2);
+    assertNull(first.get(KEY, CODEC));
+    assertNull(second.get(KEY, CODEC));
+
+    // A node writing back what it read before the change
+    second.set(KEY, "v1", 1, CODEC, 1, TimeUnit.MINUTES);
+    assertNull(first.get(KEY, CODEC));
+    assertNull(second.get(KEY, CODEC));
+
+    first.set(KEY, "v2", 2, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v2", second.get(KEY, CODEC));
+  }
+
+  @Test
+  void refusesInvalidatedVersionsLocally() {
+    byte[] stale = encode("v1", 1);
+    first.invalidate(KEY, 2);
+    // A read racing with the invalidation still sees the old value in Redis
+    redis.put(KEY, stale);
+    assertEquals("v1", second.get(KEY, CODEC));
+    redis.remove(KEY);
+    assertNull(second.get(KEY, CODEC));
+  }
+
+  @Test
+  void refusesRemovedKeys() {
+    first.set(KEY, "v1", 1, CODEC, 1, TimeUnit.MINUTES);
+    assertEquals("v1", second.get(KEY, CODEC));
+    first.del(KEY);
+    assertNull(second.get(KEY, CODEC));
+    second.set(KEY, "v9", 9, CODEC, 1, TimeUnit.MINUTES);
+    assertNull(first.get(KEY, CODEC));
+    assertNull(second.get(KEY, CODEC));
+  }
+
+  @Test
+  void dropsUndecodableEntries() {
+    redis.put(KEY, ByteBuffer.allocate(Long.BYTES + 1).putLong(1).put((byte) 7).array());
+    assertNull(first.get(KEY, CODEC));
+    assertFalse(redis.containsKey(KEY));
+  }
+
+  @SuppressWarnings("unchecked")
+  private NearCache node() {
+    RedisTemplate<String, byte[]> template = mock(RedisTemplate.class);
+    ValueOperations<String, byte[]> values = mock(ValueOperations.class);
+    when(template.opsForValue()).thenReturn(values);
+    when(values.get(any())).thenAnswer(call -> redis.get(call.<String>getArgument(0)));
+    when(template.delete(anyString()))
+        .thenAnswer(call -> redis.remove(call.<String>getArgument(0)) != null);
+    when(template.execute(any(RedisScript.class), anyList(), any(), any(), any()))
+        .thenAnswer(
+            call -> {
+              String key = call.<List<String>>getArgument(1).get(0);
+              byte[] bytes = call.getArgument(2);
+              long version = Long.parseLong(new String(call.<byte[]>getArgument(3)));
+              byte[] current = redis.get(key);
+              if (current != null && ByteBuffer.wrap(current).getLong() > version) {
+                return 0L;
+              }
+              redis.put(key, bytes);
+              return 1L;
+            });
+    doAnswer(
+            call -> {
+              byte[] channel = call.<String>getArgument(0).getBytes(StandardCharsets.UTF_8);
+              DefaultMessage message = new DefaultMessage(channel, call.getArgument(1));
+              nodes.forEach(node -> node.onMessage(message, null));
+              return null;
+            })
+        .when(template)
+        .convertAndSend(anyString(), any());
+
+    NearCache cache = new NearCache();
+    ReflectionTestUtils.setField(cache, "redisTemplate", template);
+    ReflectionTestUtils.setField(
+        cache, "listenerContainer", mock(RedisMessageListenerContainer.class));
+    ReflectionTestUtils.setField(cache, "localSize", 100L);
+    ReflectionTestUtils.setField(cache, "localTtl", 60_000L);
+    ReflectionTestUtils.setField(cache, "tombstoneTtl", 60_000L);
+    cache.init();
+    nodes.add(cache);
+    return cache;
+  }
+
+  private static byte[] encode(String value, long version) {
+    byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(Long.BYTES + 2 + utf.length)
+        .putLong(version)
+        .putShort((short) utf.length)
+        .put(utf)
+        .array();
+  }
+}
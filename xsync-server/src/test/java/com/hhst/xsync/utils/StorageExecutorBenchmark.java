@@ -0,0 +1,91 @@
+package com.hhst.xsync.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Compares the two storage execution modes on blocking calls of a fixed latency, standing in for
+ * object storage requests. Run with {@code mvn test -Dtest=StorageExecutorBenchmark
+ * -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StorageExecutorBenchmark {
+
+  private static final int[] OPERATIONS = {1000, 5000, 20000};
+  private static final long LATENCY_MILLIS = 20;
+  private static final int CONCURRENCY = 256;
+
+  @Test
+  void compareExecutionModes() throws Exception {
+    for (int operations : OPERATIONS) {
+      ThreadPoolTaskExecutor pool = platformPool();
+      try {
+        run("platform", pool, operations);
+      } finally {
+        pool.shutdown();
+      }
+      run("virtual", new VirtualThreadExecutor("bench-", CONCURRENCY), operations);
+    }
+  }
+
+  /** The pool the storage ran on before virtual threads, see ThreadConfig. */
+  private static ThreadPoolTaskExecutor platformPool() {
+    var executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(8);
+    executor.setMaxPoolSize(32);
+    executor.setQueueCapacity(1024);
+    executor.setThreadNamePrefix("bench-");
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.initialize();
+    return executor;
+  }
+
+  private static void run(String mode, Executor executor, int operations) {
+    Thread caller = Thread.currentThread();
+    AtomicInteger onCaller = new AtomicInteger();
+    AtomicInteger done = new AtomicInteger();
+    long start = System.nanoTime();
+    List<CompletableFuture<Void>> futures = new ArrayList<>(operations);
+    for (int i = 0; i < operations; i++) {
+      futures.add(
+          CompletableFuture.runAsync(
+              () -> {
+                if (Thread.currentThread() == caller) {
+                  onCaller.incrementAndGet();
+                }
+                blockingCall();
+                done.incrementAndGet();
+              },
+              executor));
+    }
+    long submitted = System.nanoTime();
+    CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    long finished = System.nanoTime();
+    assertEquals(operations, done.get());
+    System.out.printf(
+        "%-8s %6d ops: %6d ms total, %6d ms to submit, %6.0f ops/s, %d ran on the caller%n",
+        mode,
+        operations,
+        (finished - start) / 1_000_000,
+        (submitted - start) / 1_000_000,
+        operations * 1e9 / (finished - start),
+        onCaller.get());
+  }
+
+  private static void blockingCall() {
+    try {
+      Thread.sleep(LATENCY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}